@@ -1,5 +1,6 @@
 package ceb;
 
+import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
@@ -7,6 +8,7 @@ import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Point;
 import java.awt.RenderingHints;
+import java.awt.Stroke;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionListener;
@@ -22,6 +24,7 @@ import javax.swing.SwingUtilities;
 import ceb.engine.Board;
 import ceb.engine.Chess;
 import ceb.engine.Move;
+import ceb.engine.PositionSnapshot;
 
 public class BoardComponent extends JComponent {
     public static final Color BOARD_BACKGROUND = new Color(240, 240, 240);
@@ -31,6 +34,7 @@ public class BoardComponent extends JComponent {
     Color white = new Color(235, 230, 210);
     Color black_darker = Color.decode("#ffff8b");
     Color white_darker = Color.decode("#ffffa8");
+    Color target_hint = new Color(40, 40, 40, 70);
 
     private static BufferedImage sprites;
     private int cellSize;
@@ -49,6 +53,8 @@ public class BoardComponent extends JComponent {
     private Image arrow;
     private boolean showArrow;
     private int redIndex = -1;
+    // square whose piece is not drawn, while it is animated on the glass pane
+    private int hiddenIndex = -1;
 
     BoardComponent(final Board board, final PieceGlassPane glassPane, final UserListener listener) throws IOException {
         this.board = board;
@@ -71,15 +77,18 @@ public class BoardComponent extends JComponent {
                 if (BoardComponent.this.from != null && to != null && !BoardComponent.this.from.isEmpty() && !BoardComponent.this.from.equals(to)) {
                     final Move m = new Move(BoardComponent.this.from, to);
                     try {
-                        if (board.isPseudoALegal(m)) {
+                        // legal targets are cached with the position, no move generation on drop
+                        final int move = m.encode();
+                        if (board.getSnapshot().isLegalTarget(Move.getSourceSquare(move), Move.getTargetSquare(move))) {
                             final Move goodMove = board.getPuzzle().getMoves().get(board.getMoveIndex());
-                            if (m.equals(goodMove)) {
-                                board.applyNow(m);
+                            // another mate in one ends the puzzle as well. The drop gives no
+                            // promotion piece, the one of the matched move is played
+                            final Move alternative = board.getPuzzle().getAlternativeMate(board.getMoveIndex(), m);
+                            if (m.equals(goodMove) || alternative != null) {
+                                board.applyNow(alternative != null ? alternative : goodMove);
                                 listener.pieceMovedAsExpected(board);
                             } else {
-                                if (board.isLegal(m)) {
-                                    listener.unexpectedMove(board, m);
-                                }
+                                listener.unexpectedMove(board, m);
                             }
                         }
                     } catch (final Exception ex) {
@@ -96,15 +105,16 @@ public class BoardComponent extends JComponent {
             @Override
             public void mousePressed(final MouseEvent e) {
 
-                if (BoardComponent.this.showArrow) {
+                if (BoardComponent.this.showArrow || BoardComponent.this.locked) {
                     return;
                 }
                 BoardComponent.this.mousePressedPosX = getPosX(e.getX());
                 BoardComponent.this.mousePressedPosY = getPosY(e.getY());
                 try {
-                    final int piece = board.getPieceAt(BoardComponent.this.mousePressedPosX, 7 - BoardComponent.this.mousePressedPosY);
+                    final PositionSnapshot position = board.getSnapshot();
+                    final int piece = position.getPieceAt(BoardComponent.this.mousePressedPosX, 7 - BoardComponent.this.mousePressedPosY);
                     final boolean blackPiece = piece > 8;
-                    if (board.getTurn() == blackPiece) {
+                    if (position.getTurn() == blackPiece) {
                         BoardComponent.this.from = getHumanPos(BoardComponent.this.mousePressedPosX, BoardComponent.this.mousePressedPosY);
                         final int xx = e.getX();
                         final int yy = e.getY();
@@ -344,6 +354,8 @@ public class BoardComponent extends JComponent {
 
         }
         if (!this.showArrow) {
+            // read the last committed position, not the board being searched
+            final PositionSnapshot position = this.board.getSnapshot();
             // Pièces
             for (int y = 0; y < 8; y++) {
                 for (int x = 0; x < 8; x++) {
@@ -355,7 +367,7 @@ public class BoardComponent extends JComponent {
                         xOnBoard = 7 - x;
                         yOnBoard = y;
                     }
-                    final int piece = this.board.getPieceAt(xOnBoard, yOnBoard);
+                    final int piece = Board.xyToInternal(xOnBoard, yOnBoard) == this.hiddenIndex ? Chess.EMPTY : position.getPieceAt(xOnBoard, yOnBoard);
 
                     final int xx = x * cSize;
                     final int yy = y * cSize;
@@ -366,6 +378,34 @@ public class BoardComponent extends JComponent {
 
                 }
             }
+
+            // legal targets of the dragged piece, over the pieces: a dot on empty
+            // squares, a ring around the pieces that can be captured
+            if (this.mousePressedPosX >= 0 && this.mousePressedPosY >= 0) {
+                long targets = position.getLegalTargets(Board.xyToInternal(this.mousePressedPosX, 7 - this.mousePressedPosY));
+                g.setColor(this.target_hint);
+                final int d = cSize / 3;
+                final int ring = Math.max(2, cSize / 12);
+                final Stroke stroke = g2.getStroke();
+                g2.setStroke(new BasicStroke(ring));
+                while (targets != 0) {
+                    final int sq = Long.numberOfTrailingZeros(targets);
+                    int x = sq % 8;
+                    int y = 7 - sq / 8;
+                    final boolean capture = position.getPieceAt(sq % 8, sq / 8) != Chess.EMPTY;
+                    if (this.isFlipped) {
+                        x = 7 - x;
+                        y = 7 - y;
+                    }
+                    if (capture) {
+                        g.drawOval(x * cSize + ring / 2, y * cSize + ring / 2, cSize - ring, cSize - ring);
+                    } else {
+                        g.fillOval(x * cSize + (cSize - d) / 2, y * cSize + (cSize - d) / 2, d, d);
+                    }
+                    targets &= targets - 1;
+                }
+                g2.setStroke(stroke);
+            }
         }
 
     }
@@ -468,4 +508,10 @@ public class BoardComponent extends JComponent {
         this.redIndex = moveTargetSquare;
         repaint();
     }
+
+    // hides the piece on a square (internal index, -1 for none) without touching the board
+    public void setHiddenPiece(final int index) {
+        this.hiddenIndex = index;
+        repaint();
+    }
 }
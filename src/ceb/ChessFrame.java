@@ -46,7 +46,6 @@ import ceb.db.MutableRow;
 import ceb.db.Row;
 import ceb.db.Table;
 import ceb.engine.Board;
-import ceb.engine.Chess;
 import ceb.engine.Move;
 
 public class ChessFrame extends JFrame {
@@ -621,6 +620,7 @@ public class ChessFrame extends JFrame {
         this.board.setPuzzle(p);
 
         this.board.initFromFEN(p.getFen());
+        this.board.publishSnapshot();
         this.boardComponent.setFlipped(!this.board.getTurn());
 
         if (p.endAtCheckMate()) {
@@ -657,8 +657,9 @@ public class ChessFrame extends JFrame {
                 final int indexStart = animate.getMoveSourceSquare();
                 final int indexEnd = animate.getMoveTargetSquare();
 
-                final int piece = ChessFrame.this.board.getPieceAt(indexStart);
-                ChessFrame.this.board.setPiece(indexStart, Chess.EMPTY);
+                final int piece = ChessFrame.this.board.getSnapshot().getPieceAt(indexStart);
+                // the piece leaves its square in the view only, the board keeps the position
+                ChessFrame.this.boardComponent.setHiddenPiece(indexStart);
                 final Point start = Board.internalToXY(indexStart);
                 final Point stop = Board.internalToXY(indexEnd);
 
@@ -720,7 +721,7 @@ public class ChessFrame extends JFrame {
 
                             @Override
                             public void run() {
-                                ChessFrame.this.board.setPiece(indexStart, piece);
+                                ChessFrame.this.boardComponent.setHiddenPiece(-1);
                                 ChessFrame.this.glassPane.setVisible(false);
                                 ChessFrame.this.board.applyNow(animate);
                                 ChessFrame.this.repaint();
@@ -868,6 +869,7 @@ public class ChessFrame extends JFrame {
         this.newRoundButton.setEnabled(true);
         setPlayerNamesVisible(false);
         this.board.resetToStartingPosition();
+        this.board.publishSnapshot();
         this.boardComponent.setShowArrow(true);
         repaint();
         updatePlayerInfo();
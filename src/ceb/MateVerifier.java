@@ -0,0 +1,263 @@
+package ceb;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import ceb.engine.Board;
+import ceb.engine.MateSolver;
+import ceb.engine.Move;
+import ceb.engine.MoveList;
+
+/**
+ * Proves the mate puzzles of a puzzle file in parallel with MateSolver: at each ply of the player,
+ * the solution move must mate in the remaining number of moves whatever the defence, and all the
+ * other moves that mate as fast are collected as alternatives.
+ *
+ * Usage: MateVerifier [file [alternatives]], the bundled data.bin if no file is given. Prints the
+ * puzzles whose solution is not forced and the alternatives found, exits with 1 if a solution is
+ * not forced. The final mates in one are written to the alternatives file, in the format read by
+ * Puzzle.getAlternativeMate().
+ */
+public class MateVerifier {
+
+    // puzzles proved by one task
+    private static final int BATCH = 64;
+    // longest solution proved, in moves of the player: the full width search of a mate in 5 takes
+    // seconds per puzzle
+    private static final int MAX_MOVES = 4;
+
+    private static final ThreadLocal<MateSolver> SOLVERS = new ThreadLocal<MateSolver>() {
+        @Override
+        protected MateSolver initialValue() {
+            return new MateSolver();
+        }
+    };
+
+    private final List<Puzzle> puzzles;
+    private final String[] errors;
+    private final boolean[] tooLong;
+    // per puzzle and solution move: the other mating moves, null if the puzzle is not a mate
+    private final int[][][] alternatives;
+
+    public MateVerifier(final List<Puzzle> puzzles) {
+        this.puzzles = puzzles;
+        this.errors = new String[puzzles.size()];
+        this.tooLong = new boolean[puzzles.size()];
+        this.alternatives = new int[puzzles.size()][][];
+    }
+
+    // proves all mate puzzles, returns the number of puzzles whose solution is not forced
+    public int verify() {
+        return ForkJoinPool.commonPool().invoke(new BatchTask(0, this.puzzles.size()));
+    }
+
+    // null if the puzzle at index is not a mate or its solution is forced
+    public String getError(final int index) {
+        return this.errors[index];
+    }
+
+    public boolean isMate(final int index) {
+        return this.alternatives[index] != null;
+    }
+
+    // true if the puzzle is a mate longer than the solver is run on
+    public boolean isTooLong(final int index) {
+        return this.tooLong[index];
+    }
+
+    // the other moves mating as fast as the solution move at moveIndex, empty at computer moves
+    public int[] getAlternatives(final int index, final int moveIndex) {
+        return this.alternatives[index][moveIndex];
+    }
+
+    private class BatchTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        BatchTask(final int from, final int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (this.to - this.from > BATCH) {
+                final int mid = (this.from + this.to) >>> 1;
+                final BatchTask left = new BatchTask(this.from, mid);
+                left.fork();
+                final int right = new BatchTask(mid, this.to).compute();
+                return left.join() + right;
+            }
+            final Board board = new Board();
+            final MateSolver solver = SOLVERS.get();
+            int failed = 0;
+            for (int i = this.from; i < this.to; i++) {
+                if (!prove(board, solver, i)) {
+                    failed++;
+                }
+            }
+            return failed;
+        }
+    }
+
+    // false if the puzzle ends in checkmate but its solution is not forced
+    private boolean prove(final Board board, final MateSolver solver, final int index) {
+        final Puzzle p = this.puzzles.get(index);
+        final int[] moves;
+        try {
+            board.initFromFEN(p.getFen());
+            final List<Move> solution = p.getMoves();
+            moves = new int[solution.size()];
+            for (int i = 0; i < moves.length; i++) {
+                moves[i] = solution.get(i).encode();
+                if (!board.isLegal(moves[i])) {
+                    // reported by PuzzleValidator
+                    return true;
+                }
+                board.apply(moves[i]);
+            }
+        } catch (final RuntimeException e) {
+            return true;
+        }
+        // the first move is the computer's, the player mates with the last one
+        if (!board.isCheckmate() || moves.length % 2 != 0) {
+            return true;
+        }
+        if (moves.length / 2 > MAX_MOVES) {
+            this.tooLong[index] = true;
+            return true;
+        }
+        board.initFromFEN(p.getFen());
+        board.apply(moves[0]);
+        final int[][] result = new int[moves.length][];
+        result[0] = new int[0];
+        final MoveList mates = new MoveList();
+        for (int i = 1; i < moves.length; i += 2) {
+            final int n = (moves.length - i + 1) / 2;
+            solver.mateMoves(board, n, mates);
+            final int[] others = new int[mates.size()];
+            int count = 0;
+            boolean forced = false;
+            for (int j = 0; j < mates.size(); j++) {
+                final int mate = mates.get(j);
+                if (mate == moves[i]) {
+                    forced = true;
+                } else if (!sameSquares(mate, moves[i]) && !containsSquares(others, count, mate)) {
+                    // a drop can't choose between moves with the same squares, see Puzzle.getAlternativeMate()
+                    others[count++] = mate;
+                }
+            }
+            if (!forced) {
+                this.errors[index] = "move " + (i + 1) + " " + Move.decode(moves[i]).getUci().toLowerCase() + " does not force mate in " + n;
+                return false;
+            }
+            result[i] = Arrays.copyOf(others, count);
+            if (i + 1 < moves.length) {
+                result[i + 1] = new int[0];
+                board.apply(moves[i]);
+                board.apply(moves[i + 1]);
+            }
+        }
+        this.alternatives[index] = result;
+        return true;
+    }
+
+    private static boolean sameSquares(final int a, final int b) {
+        return Move.getSourceSquare(a) == Move.getSourceSquare(b) && Move.getTargetSquare(a) == Move.getTargetSquare(b);
+    }
+
+    private static boolean containsSquares(final int[] moves, final int count, final int move) {
+        for (int i = 0; i < count; i++) {
+            if (sameSquares(moves[i], move)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String toUci(final int[] moves) {
+        final StringBuilder b = new StringBuilder();
+        for (final int move : moves) {
+            if (b.length() > 0) {
+                b.append(' ');
+            }
+            b.append(Move.decode(move).getUci().toLowerCase());
+        }
+        return b.toString();
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final InputStream in = args.length > 0 ? new FileInputStream(args[0]) : Puzzle.class.getResourceAsStream("data.bin");
+        final List<Puzzle> puzzles;
+        try {
+            puzzles = Puzzle.read(in);
+        } finally {
+            in.close();
+        }
+        final long t1 = System.currentTimeMillis();
+        final MateVerifier verifier = new MateVerifier(puzzles);
+        final int failed = verifier.verify();
+        final long ms = Math.max(1, System.currentTimeMillis() - t1);
+        int mates = 0;
+        int withAlternatives = 0;
+        int skipped = 0;
+        final List<String> finalMates = new ArrayList<>();
+        for (int i = 0; i < puzzles.size(); i++) {
+            final Puzzle p = puzzles.get(i);
+            if (verifier.getError(i) != null) {
+                System.out.println(p + " : " + verifier.getError(i));
+            }
+            if (verifier.isTooLong(i)) {
+                mates++;
+                skipped++;
+                continue;
+            }
+            if (!verifier.isMate(i)) {
+                continue;
+            }
+            mates++;
+            final int size = p.getMoves().size();
+            boolean alternative = false;
+            for (int j = 1; j < size; j += 2) {
+                final int[] others = verifier.getAlternatives(i, j);
+                if (others.length > 0) {
+                    System.out.println(p.getHash() + " move " + (j + 1) + " : " + toUci(others));
+                    alternative = true;
+                    if (j == size - 1) {
+                        finalMates.add(p.getHash() + " " + j + " " + toUci(others));
+                    }
+                }
+            }
+            if (alternative) {
+                withAlternatives++;
+            }
+        }
+        if (args.length > 1) {
+            final PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(args[1]), StandardCharsets.UTF_8));
+            try {
+                for (final String line : finalMates) {
+                    out.println(line);
+                }
+            } finally {
+                out.close();
+            }
+        }
+        System.out.println("mates: " + mates +  " with alternatives: " + withAlternatives + " not forced: " + failed + " longer than mate in " + MAX_MOVES + ": " + skipped
+                + ", proved in " + ms + " ms");
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+}
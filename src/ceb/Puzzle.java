@@ -1,11 +1,14 @@
 package ceb;
 
+import java.io.BufferedReader;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -16,6 +19,7 @@ import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 import ceb.engine.Board;
+import ceb.engine.BoardPool;
 import ceb.engine.Chess;
 import ceb.engine.Move;
 
@@ -28,6 +32,8 @@ public class Puzzle implements Externalizable {
     private static List<Puzzle> all = new ArrayList<>();
     private static HashMap<String, Puzzle> allMap = new HashMap<>();
     private static int levelCount;
+    // "hash moveIndex" -> other moves mating at once, see MateVerifier
+    private static HashMap<String, List<Move>> alternativeMates;
 
     public Puzzle() {
 
@@ -116,29 +122,98 @@ public class Puzzle implements Externalizable {
         }
     }
 
+    // the move to play if m is not the solution move at moveIndex but mates as well: the listed
+    // alternative between the same squares, with its promotion piece. null otherwise
+    public Move getAlternativeMate(final int moveIndex, final Move m) {
+        final List<Move> moves = getAlternativeMates().get(this.hash + " " + moveIndex);
+        if (moves == null || m.equals(getMoves().get(moveIndex))) {
+            return null;
+        }
+        for (final Move alternative : moves) {
+            if (alternative.equals(m)) {
+                return alternative;
+            }
+        }
+        return null;
+    }
+
+    private static synchronized HashMap<String, List<Move>> getAlternativeMates() {
+        if (alternativeMates == null) {
+            final HashMap<String, List<Move>> map = new HashMap<>();
+            final InputStream in = Puzzle.class.getResourceAsStream("alternatives.txt");
+            if (in != null) {
+                try {
+                    final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                    try {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            final List<String> parts = fastSplit(line, ' ');
+                            if (parts.size() > 2) {
+                                map.put(parts.get(0) + " " + parts.get(1), parseAlternatives(line, parts.subList(2, parts.size())));
+                            }
+                        }
+                    } finally {
+                        reader.close();
+                    }
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            alternativeMates = map;
+        }
+        return alternativeMates;
+    }
+
+    // a dropped piece only gives the two squares, so the moves of a line must differ in their
+    // squares for the board to tell them apart; the promotion piece comes from the entry
+    private static List<Move> parseAlternatives(final String line, final List<String> ucis) {
+        final List<Move> moves = new ArrayList<>(ucis.size());
+        for (final String uci : ucis) {
+            final int move;
+            try {
+                move = Move.encodeUci(uci);
+            } catch (final IllegalArgumentException e) {
+                throw new IllegalStateException("alternatives.txt: invalid move " + uci + " in: " + line, e);
+            }
+            final Move m = Move.decode(move);
+            if (Move.isNullMove(move) || moves.contains(m)) {
+                throw new IllegalStateException("alternatives.txt: " + uci + " can't be played by a drop in: " + line);
+            }
+            moves.add(m);
+        }
+        return moves;
+    }
+
     public boolean isGain() {
-        final Board b = new Board(getFen());
+        final Board b = BoardPool.acquire(getFen());
+        try {
+            return isGain(b);
+        } finally {
+            BoardPool.release(b);
+        }
+    }
+
+    private boolean isGain(final Board b) {
         final boolean computerIsBlack = b.getTurn();
-        int startBlack = b.getBlackPiecesOnBoard().size();
-        int startWhite = b.getWhitePiecesOnBoard().size();
+        int startBlack = b.getPieceCount(Chess.BLACK);
+        int startWhite = b.getPieceCount(Chess.WHITE);
         final List<Move> moves = getMoves();
         for (int i = 0; i < moves.size(); i++) {
             final Move m = moves.get(i);
             b.apply(m);
             if (i == 0) {
-                startBlack = b.getBlackPiecesOnBoard().size();
-                startWhite = b.getWhitePiecesOnBoard().size();
+                startBlack = b.getPieceCount(Chess.BLACK);
+                startWhite = b.getPieceCount(Chess.WHITE);
             }
 
         }
         if (b.isCheckmate()) {
             return false;
         }
-        final int endBlack = b.getBlackPiecesOnBoard().size();
-        final int endWhite = b.getWhitePiecesOnBoard().size();
+        final int endBlack = b.getPieceCount(Chess.BLACK);
+        final int endWhite = b.getPieceCount(Chess.WHITE);
         final int deltaBlack = startBlack - endBlack;
         final int deltaWhite = startWhite - endWhite;
-        System.out.println("Puzzle.isGain() deltaBlack:" + deltaBlack + " deltaWhite:" + deltaWhite);
         if (deltaBlack == deltaWhite) {
             return false;
         }
@@ -153,15 +228,19 @@ public class Puzzle implements Externalizable {
     }
 
     public boolean endAtCheckMate() {
-        final Board b = new Board(getFen());
-        for (final Move m : getMoves()) {
-            if (!b.isLegal(m)) {
-                throw new IllegalStateException("illegal:" + m + " " + getAllMoves());
-            }
-            b.apply(m);
+        final Board b = BoardPool.acquire(getFen());
+        try {
+            for (final Move m : getMoves()) {
+                if (!b.isLegal(m)) {
+                    throw new IllegalStateException("illegal:" + m + " " + getAllMoves());
+                }
+                b.apply(m);
 
+            }
+            return b.isCheckmate();
+        } finally {
+            BoardPool.release(b);
         }
-        return b.isCheckmate();
 
     }
 
@@ -173,27 +252,51 @@ public class Puzzle implements Externalizable {
     private static void load() throws Exception {
         final long t1 = System.currentTimeMillis();
         final InputStream in = Puzzle.class.getResourceAsStream("data.bin");
-        final InflaterInputStream infIn = new InflaterInputStream(in, new Inflater(true), 2048);
-        final ObjectInputStream oIn = new ObjectInputStream(infIn);
-        levelCount = oIn.readInt();
-        final int PUZZLES_PER_LEVEL = oIn.readInt();
-        for (int i = 0; i < levelCount; i++) {
-            for (int j = 0; j < PUZZLES_PER_LEVEL; j++) {
-                final Puzzle p = new Puzzle();
-                p.readExternal(oIn);
+        try {
+            final List<Puzzle> puzzles = new ArrayList<>();
+            levelCount = read(in, puzzles);
+            for (final Puzzle p : puzzles) {
                 all.add(p);
                 allMap.put(p.getHash(), p);
             }
+        } finally {
+            in.close();
         }
         Collections.shuffle(all);
 
-        oIn.close();
-        infIn.close();
-        in.close();
         final long t2 = System.currentTimeMillis();
         System.out.println("Puzzle.load() " + (t2 - t1) + "ms");
     }
 
+    // reads a puzzle file in the format of data.bin (deflated object stream: level
+    // count, puzzles per level, then the puzzles level by level), in file order
+    public static List<Puzzle> read(final InputStream in) throws IOException {
+        final List<Puzzle> result = new ArrayList<>();
+        read(in, result);
+        return result;
+    }
+
+    // adds the puzzles of the file to result, returns the level count of the file header
+    private static int read(final InputStream in, final List<Puzzle> result) throws IOException {
+        final InflaterInputStream infIn = new InflaterInputStream(in, new Inflater(true), 2048);
+        final ObjectInputStream oIn = new ObjectInputStream(infIn);
+        final int levels = oIn.readInt();
+        final int PUZZLES_PER_LEVEL = oIn.readInt();
+        try {
+            for (int i = 0; i < levels; i++) {
+                for (int j = 0; j < PUZZLES_PER_LEVEL; j++) {
+                    final Puzzle p = new Puzzle();
+                    p.readExternal(oIn);
+                    result.add(p);
+                }
+            }
+        } catch (final ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        oIn.close();
+        return levels;
+    }
+
     @Override
     public void writeExternal(final ObjectOutput out) throws IOException {
         try {
@@ -0,0 +1,150 @@
+package ceb;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import ceb.engine.Board;
+import ceb.engine.Move;
+
+/**
+ * Checks a whole puzzle file in parallel: the FEN must load into a consistent position, every
+ * solution move must be legal, and the solution must end in checkmate or win material (see
+ * Puzzle.isGain()).
+ *
+ * Usage: PuzzleValidator [file], the bundled data.bin if no file is given. Prints the offending
+ * puzzles and the throughput, exits with 1 if any puzzle is invalid.
+ */
+public class PuzzleValidator {
+
+    // puzzles validated by one task
+    private static final int BATCH = 256;
+
+    private final List<Puzzle> puzzles;
+    private final String[] errors;
+    private final boolean[] mates;
+
+    public PuzzleValidator(final List<Puzzle> puzzles) {
+        this.puzzles = puzzles;
+        this.errors = new String[puzzles.size()];
+        this.mates = new boolean[puzzles.size()];
+    }
+
+    // validates all puzzles, returns the number of invalid ones
+    public int validate() {
+        return ForkJoinPool.commonPool().invoke(new BatchTask(0, this.puzzles.size()));
+    }
+
+    // null if the puzzle at index is valid
+    public String getError(final int index) {
+        return this.errors[index];
+    }
+
+    public boolean isMate(final int index) {
+        return this.mates[index];
+    }
+
+    private class BatchTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        BatchTask(final int from, final int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (this.to - this.from > BATCH) {
+                final int mid = (this.from + this.to) >>> 1;
+                final BatchTask left = new BatchTask(this.from, mid);
+                left.fork();
+                final int right = new BatchTask(mid, this.to).compute();
+                return left.join() + right;
+            }
+            // one board per batch, reloaded for each puzzle
+            final Board board = new Board();
+            int invalid = 0;
+            for (int i = this.from; i < this.to; i++) {
+                final String error = check(board, i);
+                if (error != null) {
+                    PuzzleValidator.this.errors[i] = error;
+                    invalid++;
+                }
+            }
+            return invalid;
+        }
+    }
+
+    private String check(final Board board, final int index) {
+        final Puzzle p = this.puzzles.get(index);
+        try {
+            board.initFromFEN(p.getFen());
+        } catch (final IllegalArgumentException e) {
+            return e.getMessage();
+        }
+        final List<Move> moves;
+        try {
+            moves = p.getMoves();
+        } catch (final RuntimeException e) {
+            return "unreadable solution: " + e.getMessage();
+        }
+        if (moves.isEmpty()) {
+            return "empty solution";
+        }
+        for (int i = 0; i < moves.size(); i++) {
+            final int move = moves.get(i).encode();
+            if (!board.isLegal(move)) {
+                return "illegal move " + (i + 1) + ": " + moves.get(i).getUci().toLowerCase();
+            }
+            board.apply(move);
+        }
+        if (board.isCheckmate()) {
+            this.mates[index] = true;
+            return null;
+        }
+        if (!p.isGain()) {
+            return "neither checkmate nor material gain";
+        }
+        return null;
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final long t1 = System.currentTimeMillis();
+        final InputStream in = args.length > 0 ? new FileInputStream(args[0]) : Puzzle.class.getResourceAsStream("data.bin");
+        final List<Puzzle> puzzles;
+        try {
+            puzzles = Puzzle.read(in);
+        } finally {
+            in.close();
+        }
+        final long t2 = System.currentTimeMillis();
+        final PuzzleValidator validator = new PuzzleValidator(puzzles);
+        final int invalid = validator.validate();
+        final long t3 = System.currentTimeMillis();
+        int mates = 0;
+        final List<String> report = new ArrayList<>();
+        for (int i = 0; i < puzzles.size(); i++) {
+            if (validator.getError(i) != null) {
+                report.add(puzzles.get(i) + " : " + validator.getError(i));
+            } else if (validator.isMate(i)) {
+                mates++;
+            }
+        }
+        for (final String line : report) {
+            System.out.println(line);
+        }
+        final long ms = Math.max(1, t3 - t2);
+        System.out.println("puzzles: " + puzzles.size() + " mates: " + mates + " gains: " + (puzzles.size() - invalid - mates) + " invalid: " + invalid + " read: " + (t2 - t1)
+                + " ms, validated: " + ms + " ms, " + (puzzles.size() * 1000L / ms) + " puzzles/s");
+        if (invalid > 0) {
+            System.exit(1);
+        }
+    }
+}
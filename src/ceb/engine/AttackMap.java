@@ -0,0 +1,155 @@
+package ceb.engine;
+
+/**
+ * Which pieces attack which squares, for both colors, built in one pass over the pieces of a
+ * position, see Board.getAttackMap().
+ *
+ * Only direct attacks count: a slider is stopped by the first piece on its way, so a queen behind
+ * a rook on the same file is not an attacker of the squares beyond the rook. Pawns attack
+ * diagonally only, e.p. is ignored, pins are ignored.
+ */
+public final class AttackMap {
+
+    private final long zobristHash;
+    // first dim is the color (Chess.IWHITE, Chess.IBLACK), second the attacked square (a1 = 0):
+    // bitboard of the pieces attacking it
+    private final long[][] attackers = new long[2][64];
+    // squares attacked by each color, and by each piece type of each color
+    private final long[] attacked = new long[2];
+    private final long[][] attackedBy = new long[2][7];
+    private final long[] attackedTwice = new long[2];
+    private final long[] hanging = new long[2];
+
+    private AttackMap(long zobristHash) {
+        this.zobristHash = zobristHash;
+    }
+
+    static AttackMap of(Board board) {
+        AttackMap map = new AttackMap(board.getZobristHash());
+        long occupied = board.getOccupied();
+        for (int c = Chess.IWHITE; c <= Chess.IBLACK; c++) {
+            boolean color = c == Chess.IBLACK;
+            for (int type = Chess.PAWN; type <= Chess.KING; type++) {
+                long pieces = board.getPieces(color, type);
+                while (pieces != 0) {
+                    int sq = Long.numberOfTrailingZeros(pieces);
+                    long attacks = attacks(c, type, sq, occupied);
+                    map.attackedTwice[c] |= map.attacked[c] & attacks;
+                    map.attacked[c] |= attacks;
+                    map.attackedBy[c][type] |= attacks;
+                    long bit = Bitboards.bit(sq);
+                    while (attacks != 0) {
+                        map.attackers[c][Long.numberOfTrailingZeros(attacks)] |= bit;
+                        attacks &= attacks - 1;
+                    }
+                    pieces &= pieces - 1;
+                }
+            }
+        }
+        for (int c = Chess.IWHITE; c <= Chess.IBLACK; c++) {
+            map.hanging[c] = map.findHanging(board, c);
+        }
+        return map;
+    }
+
+    private static long attacks(int intColor, int pieceType, int sq, long occupied) {
+        switch (pieceType) {
+        case Chess.PAWN:
+            return Bitboards.PAWN_ATTACKS[intColor][sq];
+        case Chess.KNIGHT:
+            return Bitboards.KNIGHT_ATTACKS[sq];
+        case Chess.BISHOP:
+            return Bitboards.bishopAttacks(sq, occupied);
+        case Chess.ROOK:
+            return Bitboards.rookAttacks(sq, occupied);
+        case Chess.QUEEN:
+            return Bitboards.queenAttacks(sq, occupied);
+        default:
+            return Bitboards.KING_ATTACKS[sq];
+        }
+    }
+
+    // pieces other than the king attacked by the enemy, and either not defended or attacked by
+    // a cheaper piece
+    private long findHanging(Board board, int intColor) {
+        boolean color = intColor == Chess.IBLACK;
+        long result = 0;
+        for (int type = Chess.PAWN; type <= Chess.QUEEN; type++) {
+            long pieces = board.getPieces(color, type) & this.attacked[1 - intColor];
+            while (pieces != 0) {
+                int sq = Long.numberOfTrailingZeros(pieces);
+                boolean defended = (this.attacked[intColor] & Bitboards.bit(sq)) != 0;
+                if (!defended || this.cheapestAttacker(1 - intColor, sq) < Chess.PIECE_VALUES[type]) {
+                    result |= Bitboards.bit(sq);
+                }
+                pieces &= pieces - 1;
+            }
+        }
+        return result;
+    }
+
+    private int cheapestAttacker(int intColor, int sq) {
+        for (int type = Chess.PAWN; type <= Chess.KING; type++) {
+            if ((this.attackedBy[intColor][type] & Bitboards.bit(sq)) != 0) {
+                return type == Chess.KING ? Integer.MAX_VALUE : Chess.PIECE_VALUES[type];
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private static int intColor(boolean color) {
+        return color == Chess.BLACK ? Chess.IBLACK : Chess.IWHITE;
+    }
+
+    private static int sq64(int internalCoordinate) {
+        int sq = internalCoordinate >= 0 && internalCoordinate < 120 ? Bitboards.SQ64[internalCoordinate] : -1;
+        if (sq < 0) {
+            throw new IllegalArgumentException("attack map: not a square: " + internalCoordinate);
+        }
+        return sq;
+    }
+
+    public long getZobristHash() {
+        return this.zobristHash;
+    }
+
+    // bitboard of the pieces of the color attacking the square
+    public long getAttackers(boolean color, int internalCoordinate) {
+        return this.attackers[intColor(color)][sq64(internalCoordinate)];
+    }
+
+    public int getAttackCount(boolean color, int internalCoordinate) {
+        return Long.bitCount(this.getAttackers(color, internalCoordinate));
+    }
+
+    public boolean isAttacked(boolean color, int internalCoordinate) {
+        return this.getAttackers(color, internalCoordinate) != 0;
+    }
+
+    // bitboard of the squares the color attacks at least once
+    public long getAttackedSquares(boolean color) {
+        return this.attacked[intColor(color)];
+    }
+
+    // bitboard of the squares the color attacks at least twice
+    public long getAttackedTwice(boolean color) {
+        return this.attackedTwice[intColor(color)];
+    }
+
+    // bitboard of the squares attacked by the pieces of the color and type
+    public long getAttackedBy(boolean color, int pieceType) {
+        return this.attackedBy[intColor(color)][pieceType];
+    }
+
+    // squares attacked by the color and not by the other one
+    public long getControlledSquares(boolean color) {
+        int c = intColor(color);
+        return this.attacked[c] & ~this.attacked[1 - c];
+    }
+
+    // bitboard of the pieces of the color (king excluded) that are attacked and not defended, or
+    // attacked by a cheaper piece
+    public long getHangingPieces(boolean color) {
+        return this.hanging[intColor(color)];
+    }
+}
@@ -0,0 +1,83 @@
+package ceb.engine;
+
+import java.util.Arrays;
+
+/**
+ * Immutable fixed-size binary form of a position, see Board.encode() for the layout.
+ *
+ * Two positions are equal if all their bytes are, so instances can be used as map keys or sorted
+ * (unsigned lexicographic order of the bytes) in place of FEN strings.
+ */
+public final class BinaryPosition implements Comparable<BinaryPosition> {
+
+    public static final int SIZE = 30;
+
+    private final byte[] bytes;
+
+    private BinaryPosition(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    public static BinaryPosition of(Board board) {
+        byte[] bytes = new byte[SIZE];
+        board.encode(bytes, 0);
+        return new BinaryPosition(bytes);
+    }
+
+    // the bytes are copied and checked when decoded
+    public static BinaryPosition fromBytes(byte[] bytes, int offset) {
+        if (offset < 0 || bytes.length - offset < SIZE) {
+            throw new IllegalArgumentException("need " + SIZE + " bytes at offset " + offset);
+        }
+        return new BinaryPosition(Arrays.copyOfRange(bytes, offset, offset + SIZE));
+    }
+
+    public void decodeInto(Board board) {
+        board.decode(this.bytes, 0);
+    }
+
+    public Board toBoard() {
+        Board board = new Board();
+        board.decode(this.bytes, 0);
+        return board;
+    }
+
+    public void writeTo(byte[] out, int offset) {
+        System.arraycopy(this.bytes, 0, out, offset, SIZE);
+    }
+
+    public byte[] toByteArray() {
+        return this.bytes.clone();
+    }
+
+    @Override
+    public int compareTo(BinaryPosition other) {
+        for (int i = 0; i < SIZE; i++) {
+            int c = (this.bytes[i] & 0xFF) - (other.bytes[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof BinaryPosition && Arrays.equals(this.bytes, ((BinaryPosition) obj).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.bytes);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder(2 * SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            b.append(Character.forDigit((this.bytes[i] >>> 4) & 0x0F, 16));
+            b.append(Character.forDigit(this.bytes[i] & 0x0F, 16));
+        }
+        return b.toString();
+    }
+}
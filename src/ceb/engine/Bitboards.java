@@ -0,0 +1,197 @@
+package ceb.engine;
+
+/**
+ * Static bitboard tables shared by Board.
+ *
+ * Bit i of a bitboard is square i, with a1 = 0, b1 = 1, ..., h8 = 63. Slider attacks use fancy
+ * magic bitboards: the relevant occupancy of a square is multiplied by a magic number and the top
+ * bits of the product index a per-square slice of a precomputed attack table.
+ */
+public final class Bitboards {
+
+    private Bitboards() {
+    }
+
+    // conversion between the 10x12 mailbox index used by Board and Move (A1 = 21, H8 = 98)
+    // and the bitboard square index. SQ64 is -1 for fringe squares
+    public static final int[] SQ64 = new int[120];
+    public static final int[] SQ120 = new int[64];
+
+    public static final long[] KNIGHT_ATTACKS = new long[64];
+    public static final long[] KING_ATTACKS = new long[64];
+    // first dim is the color of the attacking pawn (Chess.IWHITE, Chess.IBLACK)
+    public static final long[][] PAWN_ATTACKS = new long[2][64];
+
+    // mailbox offset of each ray direction (north, north east, ... north west), opposite
+    // directions are 4 apart
+    private static final int[] RAY_OFFSETS = { 10, 11, 1, -9, -10, -11, -1, 9 };
+
+    // indexed by 64 * a + b, see between() and line()
+    private static final long[] BETWEEN = new long[64 * 64];
+    private static final long[] LINE = new long[64 * 64];
+
+    private static final long[] ROOK_MAGICS = {
+            0x1080004008801020L, 0x0840092002C03000L, 0x1900200010400900L, 0x0880100008000480L, 0x4200100420080200L, 0x8100020100080400L, 0x0200040110886200L, 0x0200008040220411L,
+            0x0404800084400220L, 0x0000401000402000L, 0x0086001081220440L, 0x0408800800100280L, 0x000A001201040820L, 0x8848800200840080L, 0x4001000100040200L, 0x0442000102105084L,
+            0x9080010020804100L, 0x0040404000201009L, 0x0000808010002009L, 0x2200090021D00100L, 0x0008008008040080L, 0x0004004002010040L, 0x0011040008015042L, 0x00000A0001768104L,
+            0x0000800080204009L, 0x2010004140002001L, 0x9800200280100080L, 0x1000100080080080L, 0x0442000A00049020L, 0x2100040080020080L, 0x0800120400900148L, 0x0010040A00128541L,
+            0x2800804000800030L, 0x1010002000400041L, 0x4000200011004100L, 0x0610008410800800L, 0x0400802402800800L, 0xC100020080800400L, 0x0002000802000401L, 0x0182085882000401L,
+            0x0220204000808000L, 0x2860100040024022L, 0x0001002004110040L, 0x99101042000A0020L, 0x0004080004008080L, 0x0010040002008080L, 0x2012004881020004L, 0x8300842444820011L,
+            0x0088403882010200L, 0x0820400080210100L, 0x0110910040A00300L, 0x0801100280080480L, 0x0242009008200600L, 0x1002000489500200L, 0x0040800200010080L, 0x0091800041000080L,
+            0x0000209300488001L, 0x04C1002414824001L, 0x020020000B001041L, 0x7000100004200901L, 0x8002002004100802L, 0x30010002084C0007L, 0x0888221800813004L, 0x4000002840840112L
+    };
+
+    private static final long[] BISHOP_MAGICS = {
+            0xA010041108003100L, 0x006082020A002900L, 0x6810010619200000L, 0x08281A0520000408L, 0x0001104001000400L, 0x0018901008048400L, 0x00040A0210245280L, 0x000200210808A402L,
+            0x9140048410821200L, 0x0800091010820041L, 0x20504804832202C0L, 0x0100091401081000L, 0x8021011140000012L, 0x0810020804450400L, 0x208B0542109008A2L, 0x0080084A08040204L,
+            0x0040E2A80811244CL, 0x2505022008008108L, 0x0430220100420040L, 0x010A040420220040L, 0x1105000290400000L, 0x0093001200822120L, 0x4000A62048043004L, 0x280120048A015004L,
+            0x006090002A020814L, 0x44042000240800D0L, 0x01102800040A4400L, 0x1004080080220040L, 0x0001001011004024L, 0x0010044000805040L, 0x0914041200820100L, 0x0004821012821480L,
+            0x0024040500C05021L, 0x0088611002080200L, 0x0116080A00040020L, 0x4000020080080080L, 0x2450450140840040L, 0x0000880201484100L, 0x0222020404020092L, 0x8081110600002E00L,
+            0x2842101105000801L, 0x1100809008001025L, 0x00020202221C0400L, 0x0422014022009020L, 0x0210046102100C00L, 0xC004008082029102L, 0x00AA461801101200L, 0x0404080080201108L,
+            0x020542108C205002L, 0x0410544804100100L, 0x0040910841100000L, 0x0400200042021100L, 0x00004204850400C0L, 0x0200100410A42102L, 0x1040020801210102L, 0x0805040410420000L,
+            0x2884804130100200L, 0x800C262201242000L, 0x1058000194108800L, 0x0014221054420204L, 0x0104000012A02200L, 0x0200881003300100L, 0x0140400202840100L, 0x0402020801010201L
+    };
+
+    private static final long[] ROOK_MASKS = new long[64];
+    private static final long[] BISHOP_MASKS = new long[64];
+    private static final int[] ROOK_SHIFTS = new int[64];
+    private static final int[] BISHOP_SHIFTS = new int[64];
+    private static final int[] ROOK_OFFSETS = new int[64];
+    private static final int[] BISHOP_OFFSETS = new int[64];
+    private static final long[] ROOK_TABLE;
+    private static final long[] BISHOP_TABLE;
+
+    static {
+        for (int i = 0; i < 120; i++) {
+            SQ64[i] = -1;
+        }
+        for (int sq = 0; sq < 64; sq++) {
+            int idx = 21 + (sq / 8) * 10 + (sq % 8);
+            SQ120[sq] = idx;
+            SQ64[idx] = sq;
+        }
+        for (int sq = 0; sq < 64; sq++) {
+            KNIGHT_ATTACKS[sq] = leaperAttacks(sq, Chess.DIR_TABLE[Chess.IDX_KNIGHT], 1, 8);
+            KING_ATTACKS[sq] = leaperAttacks(sq, Chess.DIR_TABLE[Chess.IDX_KING], 1, 8);
+            // diagonal captures are entries 3 and 4 of the pawn directions
+            PAWN_ATTACKS[Chess.IWHITE][sq] = leaperAttacks(sq, Chess.DIR_TABLE[Chess.IDX_WPAWN], 3, 4);
+            PAWN_ATTACKS[Chess.IBLACK][sq] = leaperAttacks(sq, Chess.DIR_TABLE[Chess.IDX_BPAWN], 3, 4);
+        }
+        initRays();
+        ROOK_TABLE = initMagics(Chess.DIR_TABLE[Chess.IDX_ROOK], ROOK_MAGICS, ROOK_MASKS, ROOK_SHIFTS, ROOK_OFFSETS);
+        BISHOP_TABLE = initMagics(Chess.DIR_TABLE[Chess.IDX_BISHOP], BISHOP_MAGICS, BISHOP_MASKS, BISHOP_SHIFTS, BISHOP_OFFSETS);
+    }
+
+    public static long bit(int sq) {
+        return 1L << sq;
+    }
+
+    // bit of a square given as mailbox index
+    public static long bit120(int internalCoordinate) {
+        return 1L << SQ64[internalCoordinate];
+    }
+
+    public static long rookAttacks(int sq, long occupied) {
+        return ROOK_TABLE[ROOK_OFFSETS[sq] + (int) (((occupied & ROOK_MASKS[sq]) * ROOK_MAGICS[sq]) >>> ROOK_SHIFTS[sq])];
+    }
+
+    public static long bishopAttacks(int sq, long occupied) {
+        return BISHOP_TABLE[BISHOP_OFFSETS[sq] + (int) (((occupied & BISHOP_MASKS[sq]) * BISHOP_MAGICS[sq]) >>> BISHOP_SHIFTS[sq])];
+    }
+
+    public static long queenAttacks(int sq, long occupied) {
+        return rookAttacks(sq, occupied) | bishopAttacks(sq, occupied);
+    }
+
+    // squares strictly between a and b if they share a rank, file or diagonal, 0 otherwise
+    public static long between(int a, int b) {
+        return BETWEEN[(a << 6) | b];
+    }
+
+    // the whole rank, file or diagonal through a and b, 0 if they are not aligned
+    public static long line(int a, int b) {
+        return LINE[(a << 6) | b];
+    }
+
+    // walks each direction from every square once, the squares passed on the way to b are
+    // between a and b, and the rays both ways through a make their line
+    private static void initRays() {
+        // squares from a square to the edge of the board in a direction, the square excluded
+        long[][] rays = new long[8][64];
+        for (int sq = 0; sq < 64; sq++) {
+            for (int dir = 0; dir < 8; dir++) {
+                long passed = 0;
+                for (int idx = SQ120[sq] + RAY_OFFSETS[dir]; SQ64[idx] >= 0; idx += RAY_OFFSETS[dir]) {
+                    int target = SQ64[idx];
+                    BETWEEN[(sq << 6) | target] = passed;
+                    passed |= bit(target);
+                }
+                rays[dir][sq] = passed;
+            }
+        }
+        for (int sq = 0; sq < 64; sq++) {
+            for (int dir = 0; dir < 8; dir++) {
+                long line = rays[dir][sq] | rays[(dir + 4) & 7][sq] | bit(sq);
+                long targets = rays[dir][sq];
+                while (targets != 0) {
+                    LINE[(sq << 6) | Long.numberOfTrailingZeros(targets)] = line;
+                    targets &= targets - 1;
+                }
+            }
+        }
+    }
+
+    private static long leaperAttacks(int sq, int[] directions, int first, int last) {
+        long attacks = 0;
+        for (int j = first; j <= last; j++) {
+            int target = SQ64[SQ120[sq] + directions[j]];
+            if (target >= 0) {
+                attacks |= bit(target);
+            }
+        }
+        return attacks;
+    }
+
+    // walk the rays of a slider on the mailbox, stopping at the first occupied square
+    // if edges is false, the last square of each ray is left out (relevant occupancy mask)
+    private static long slidingAttacks(int sq, int[] directions, long occupied, boolean edges) {
+        long attacks = 0;
+        for (int j = 1; j <= directions[0]; j++) {
+            int idx = SQ120[sq] + directions[j];
+            while (SQ64[idx] >= 0) {
+                if (!edges && SQ64[idx + directions[j]] < 0) {
+                    break;
+                }
+                long b = bit(SQ64[idx]);
+                attacks |= b;
+                if ((occupied & b) != 0) {
+                    break;
+                }
+                idx += directions[j];
+            }
+        }
+        return attacks;
+    }
+
+    private static long[] initMagics(int[] directions, long[] magics, long[] masks, int[] shifts, int[] offsets) {
+        int size = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            masks[sq] = slidingAttacks(sq, directions, 0L, false);
+            shifts[sq] = 64 - Long.bitCount(masks[sq]);
+            offsets[sq] = size;
+            size += 1 << Long.bitCount(masks[sq]);
+        }
+        long[] table = new long[size];
+        for (int sq = 0; sq < 64; sq++) {
+            // enumerate all subsets of the mask (carry-rippler)
+            long subset = 0;
+            do {
+                int idx = offsets[sq] + (int) ((subset * magics[sq]) >>> shifts[sq]);
+                table[idx] = slidingAttacks(sq, directions, subset, true);
+                subset = (subset - masks[sq]) & masks[sq];
+            } while (subset != 0);
+        }
+        return table;
+    }
+
+}
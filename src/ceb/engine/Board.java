@@ -18,45 +18,82 @@ package ceb.engine;
 
 import java.awt.Point;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import ceb.Puzzle;
 
 public class Board {
 
+    private static final int UNDO_CAPACITY = 64;
+    private static final int UNDO_NULL = Move.NULL_MOVE;
+    private static final int UNDO_EP = 1 << 18;
+    // value of the king in the exchange evaluation, so it is never traded
+    private static final int SEE_KING_VALUE = 10000;
+    // kinds of moves generated, see generateMoves(). Captures include capturing promotions
+    // and e.p., promotions are the pawn pushes to the last rank, quiets are all the other moves,
+    // quiet checks the quiets that give check
+    private static final int GEN_ALL = 0;
+    private static final int GEN_CAPTURES = 1;
+    private static final int GEN_PROMOTIONS = 2;
+    private static final int GEN_QUIETS = 3;
+    private static final int GEN_QUIET_CHECKS = 4;
+    private static final long LAST_RANKS = 0xFF000000000000FFL;
+
     public boolean turn;
     public int halfmoveClock;
     public int fullmoveNumber;
 
-    private int[] board;
-    private int[] oldBoard;
-    private int[][][] pieceList;
+    // mailbox view of the position (10x12, A1 = 21, H8 = 98)
+    // kept in sync with the bitboards below
+    private final int[] board = new int[120];
+    // piece list: the squares of each color and piece type are packed at the
+    // front of pieceList[color][type], with pieceCount entries in use.
+    // pieceSlot maps a square to its index in that list (-1 if not listed),
+    // so pieces are added, removed and moved in constant time
+    private final int[][][] pieceList = new int[2][7][10];
+    private final int[][] pieceCount = new int[2][7];
+    private final int[] pieceSlot = new int[120];
+
+    // bitboards, see Bitboards for the square layout
+    // first dim of pieces is the color (Chess.IWHITE, Chess.IBLACK),
+    // second dim the piece type (Chess.PAWN ... Chess.KING)
+    private final long[][] pieces = new long[2][7];
+    private final long[] colors = new long[2];
+    private long occupied;
+    // sum of Chess.PIECE_VALUES per color, kept up to date with the bitboards
+    private final int[] material = new int[2];
 
     private long zobristHash;
-    private long positionHash;
-
-    private boolean undoAvailable;
-    private boolean zobristInitialized;
-    private boolean posHashInitialized;
-    private boolean lastMoveWasNull;
+    // built on demand for the position with its hash, see getAttackMap()
+    private AttackMap attackMap;
 
     private boolean castleWkingOk;
     private boolean castleWqueenOk;
     private boolean castleBkingOk;
     private boolean castleBqueenOk;
 
-    private boolean prevCastleWkingOk;
-    private boolean prevCastleWqueenOk;
-    private boolean prevCastleBkingOk;
-    private boolean prevCastleBqueenOk;
-
     private int enPassentTarget;
-    private int prevEnPassentTarget;
 
-    private int prevHalfmoveClock;
+    // undo stack, one record per applied move, see pushUndoRecord()
+    private int[] undoMoves = new int[UNDO_CAPACITY];
+    private int[] undoCaptures = new int[UNDO_CAPACITY];
+    private int[] undoStates = new int[UNDO_CAPACITY];
+    private long[] undoHashes = new long[UNDO_CAPACITY];
+    private int undoCount;
+
+    // scratch buffers, so legality checks don't allocate
+    private final MoveList legalityMoves = new MoveList();
+    private final int[] seeGains = new int[32];
+
     private Puzzle puzzle;
     private int moveIndex;
 
+    // last committed position, see PositionSnapshot
+    private volatile PositionSnapshot snapshot;
+    // legal targets of the positions published by this board, keyed by hash
+    private final PositionSnapshot.TargetCache targetCache = new PositionSnapshot.TargetCache();
+
     public static int alphaToPos(char alpha) {
         if (alpha == 'A') {
             return 0;
@@ -103,59 +140,9 @@ public class Board {
     public Board(boolean startingPosition) {
 
         if (startingPosition) {
-            this.board = new int[120];
-            this.oldBoard = new int[120];
-            this.pieceList = new int[2][7][10];
-
-            this.turn = Chess.WHITE;
-            for (int i = 0; i < 120; i++) {
-                this.board[i] = Chess.INIT_POS[i];
-                this.oldBoard[i] = 0xFF;
-            }
-            this.initPieceList();
-            this.castleWkingOk = true;
-            this.castleWqueenOk = true;
-            this.castleBkingOk = true;
-            this.castleBqueenOk = true;
-            this.prevCastleWkingOk = false;
-            this.prevCastleWqueenOk = false;
-            this.prevCastleBkingOk = false;
-            this.prevCastleBqueenOk = false;
-            this.enPassentTarget = 0;
-            this.halfmoveClock = 0;
-            this.fullmoveNumber = 1;
-            this.undoAvailable = false;
-            this.lastMoveWasNull = false;
-            this.prevHalfmoveClock = 0;
-            this.zobristInitialized = false;
-            this.posHashInitialized = false;
+            this.setUp(Chess.INIT_POS, true);
         } else { // initialize empty board
-            this.board = new int[120];
-            this.oldBoard = new int[120];
-            this.pieceList = new int[2][7][10];
-
-            this.turn = Chess.WHITE;
-            for (int i = 0; i < 120; i++) {
-                this.board[i] = Chess.EMPTY_POS[i];
-                this.oldBoard[i] = 0xFF;
-            }
-            this.initPieceList();
-            this.castleWkingOk = false;
-            this.castleWqueenOk = false;
-            this.castleBkingOk = false;
-            this.castleBqueenOk = false;
-            this.prevCastleWkingOk = false;
-            this.prevCastleWqueenOk = false;
-            this.prevCastleBkingOk = false;
-            this.prevCastleBqueenOk = false;
-            this.enPassentTarget = 0;
-            this.halfmoveClock = 0;
-            this.fullmoveNumber = 1;
-            this.undoAvailable = false;
-            this.lastMoveWasNull = false;
-            this.prevHalfmoveClock = 0;
-            this.zobristInitialized = false;
-            this.posHashInitialized = false;
+            this.setUp(Chess.EMPTY_POS, false);
         }
     }
 
@@ -163,416 +150,630 @@ public class Board {
         initFromFEN(fen);
     }
 
+    // loads the position into the existing arrays. If the fen is invalid, an
+    // IllegalArgumentException is thrown and the board is left empty
     public void initFromFEN(String fen) {
         this.moveIndex = 0;
-        this.board = new int[120];
-        this.oldBoard = new int[120];
-        this.pieceList = new int[2][7][10];
+        try {
+            this.parseFEN(fen);
+        } catch (IllegalArgumentException e) {
+            this.setUp(Chess.EMPTY_POS, false);
+            throw e;
+        }
+        if (!this.initLoadedPosition()) {
+            throw new IllegalArgumentException("fen: board position from supplied fen is inconsistent in " + fen);
+        }
+    }
 
-        for (int i = 0; i < 120; i++) {
-            this.board[i] = Chess.EMPTY_POS[i];
-            this.oldBoard[i] = 0xFF;
+    // derives the piece list, bitboards and hash once the mailbox and the
+    // flags are filled. Returns false and leaves the board empty if the
+    // position is inconsistent
+    private boolean initLoadedPosition() {
+        this.undoCount = 0;
+        // attack detection in isConsistent() needs the piece list and bitboards
+        this.initPieceList();
+        this.initBitboards();
+        if (!this.isConsistent()) {
+            this.setUp(Chess.EMPTY_POS, false);
+            return false;
         }
+        this.zobristHash = this.computeZobristHash();
+        this.snapshot = null;
+        return true;
+    }
 
-        // check that we have six parts in fen, each separated by space
-        // if last two parts are missing (fullmove no. + halfmove clock)
-        // try to still parse the game
-        String[] fenParts = fen.split(" ");
-        if (fenParts.length < 4) {
-            throw new IllegalArgumentException("fen: parts missing in " + fen);
+    // loads a published position, moveIndex included
+    void loadSnapshot(PositionSnapshot snapshot) {
+        this.copySnapshot(snapshot);
+        if (!this.initLoadedPosition()) {
+            throw new IllegalArgumentException("snapshot: board position is inconsistent");
         }
-        // check that the first part consists of 8 rows, each sep. by /
-        String[] rows = fenParts[0].split("/");
-        if (rows.length != 8) {
-            throw new IllegalArgumentException("fen: not 8 rows in 0th part in " + fen);
+    }
+
+    // same without the consistency check, for scratch boards that only generate moves or
+    // attacks: setPiece can publish a position without a king
+    void loadSnapshotUnchecked(PositionSnapshot snapshot) {
+        this.copySnapshot(snapshot);
+        this.undoCount = 0;
+        this.initPieceList();
+        this.initBitboards();
+        this.zobristHash = this.computeZobristHash();
+        this.snapshot = null;
+    }
+
+    private void copySnapshot(PositionSnapshot snapshot) {
+        System.arraycopy(Chess.EMPTY_POS, 0, this.board, 0, 120);
+        int[] squares = snapshot.squares();
+        for (int sq = 0; sq < 64; sq++) {
+            this.board[Bitboards.SQ120[sq]] = squares[sq];
+        }
+        this.turn = snapshot.getTurn();
+        int castlingRights = snapshot.getCastlingRights();
+        this.castleWkingOk = (castlingRights & 1) != 0;
+        this.castleWqueenOk = (castlingRights & 2) != 0;
+        this.castleBkingOk = (castlingRights & 4) != 0;
+        this.castleBqueenOk = (castlingRights & 8) != 0;
+        this.enPassentTarget = snapshot.getEnPassentTarget();
+        this.halfmoveClock = snapshot.getHalfmoveClock();
+        this.fullmoveNumber = snapshot.getFullmoveNumber();
+        this.moveIndex = snapshot.getMoveIndex();
+    }
+
+    // makes the current position the one returned by getSnapshot(). applyNow and
+    // setPiece do it themselves; after a load (fen, setup, copy) the owner calls it
+    // when other threads read the board, scratch boards never do
+    public void publishSnapshot() {
+        int[] squares = new int[64];
+        for (int sq = 0; sq < 64; sq++) {
+            squares[sq] = this.board[Bitboards.SQ120[sq]];
+        }
+        int castlingRights = 0;
+        if (this.castleWkingOk) {
+            castlingRights |= 1;
+        }
+        if (this.castleWqueenOk) {
+            castlingRights |= 2;
+        }
+        if (this.castleBkingOk) {
+            castlingRights |= 4;
+        }
+        if (this.castleBqueenOk) {
+            castlingRights |= 8;
+        }
+        this.snapshot = new PositionSnapshot(squares, this.turn, castlingRights, this.enPassentTarget, this.halfmoveClock, this.fullmoveNumber, this.moveIndex,
+                this.zobristHash, this.targetCache);
+    }
+
+    // the position after the last committed change (publishSnapshot, applyNow,
+    // setPiece), never one of the intermediate positions of apply/undo. Safe to
+    // call from any thread once published; a board loaded and not published
+    // builds it here from the calling thread
+    public PositionSnapshot getSnapshot() {
+        PositionSnapshot s = this.snapshot;
+        if (s == null) {
+            this.publishSnapshot();
+            s = this.snapshot;
         }
-        // check that in each row, there are no two consecutive digits
-        for (int i = 0; i < rows.length; i++) {
-            String row = rows[i];
-            int field_sum = 0;
-            boolean previous_was_digit = false;
-            for (int j = 0; j < row.length(); j++) {
-                char rj = row.charAt(j);
-                char rjl = Character.toLowerCase(rj);
-                if (rj == '1' || rj == '2' || rj == '3' || rj == '4' || rj == '5' || rj == '6' || rj == '7' || rj == '8') {
-                    if (previous_was_digit) {
-                        throw new IllegalArgumentException("fen: two consecutive digits in rows in " + fen);
-                    } else {
-                        field_sum += Character.getNumericValue(rj);
-                        previous_was_digit = true;
-                    }
-                } else if (rjl == 'p' || rjl == 'n' || rjl == 'b' || rjl == 'r' || rjl == 'q' || rjl == 'k') {
-                    field_sum += 1;
-                    previous_was_digit = false;
-                } else {
-                    throw new IllegalArgumentException("fen: two consecutive chars in rows in " + fen);
-                }
+        return s;
+    }
+
+    // writes the position as BinaryPosition.SIZE bytes:
+    // bytes 0-7 occupancy (bit 0 = a1), bytes 8-23 one nibble per occupied square
+    // in ascending square order (piece type, +8 for black), byte 24 side to move
+    // (bit 0) and castling rights (bits 1-4: K, Q, k, q), byte 25 ep square + 1
+    // (0 for none), bytes 26-27 halfmove clock, bytes 28-29 fullmove number
+    public void encode(byte[] out, int offset) {
+        if (offset < 0 || out.length - offset < BinaryPosition.SIZE) {
+            throw new IllegalArgumentException("encode: need " + BinaryPosition.SIZE + " bytes at offset " + offset);
+        }
+        if (Long.bitCount(this.occupied) > 32) {
+            throw new IllegalArgumentException("encode: more than 32 pieces on the board");
+        }
+        if (this.halfmoveClock > 0xFFFF || this.fullmoveNumber > 0xFFFF) {
+            throw new IllegalArgumentException("encode: move counters out of range");
+        }
+        for (int i = 0; i < 8; i++) {
+            out[offset + i] = (byte) (this.occupied >>> (56 - 8 * i));
+        }
+        Arrays.fill(out, offset + 8, offset + 24, (byte) 0);
+        int nibble = 0;
+        for (long o = this.occupied; o != 0; o &= o - 1) {
+            int piece = this.board[Bitboards.SQ120[Long.numberOfTrailingZeros(o)]];
+            int code = (piece & 0x07) | ((piece & 0x80) >>> 4);
+            out[offset + 8 + (nibble >> 1)] |= (nibble & 1) == 0 ? code << 4 : code;
+            nibble++;
+        }
+        int flags = this.turn == Chess.BLACK ? 1 : 0;
+        if (this.castleWkingOk) {
+            flags |= 2;
+        }
+        if (this.castleWqueenOk) {
+            flags |= 4;
+        }
+        if (this.castleBkingOk) {
+            flags |= 8;
+        }
+        if (this.castleBqueenOk) {
+            flags |= 16;
+        }
+        out[offset + 24] = (byte) flags;
+        out[offset + 25] = (byte) (this.enPassentTarget == 0 ? 0 : Bitboards.SQ64[this.enPassentTarget] + 1);
+        out[offset + 26] = (byte) (this.halfmoveClock >>> 8);
+        out[offset + 27] = (byte) this.halfmoveClock;
+        out[offset + 28] = (byte) (this.fullmoveNumber >>> 8);
+        out[offset + 29] = (byte) this.fullmoveNumber;
+    }
+
+    // loads a position written by encode() into the existing arrays. If the
+    // bytes are invalid, an IllegalArgumentException is thrown and the board
+    // is left empty
+    public void decode(byte[] in, int offset) {
+        if (offset < 0 || in.length - offset < BinaryPosition.SIZE) {
+            throw new IllegalArgumentException("decode: need " + BinaryPosition.SIZE + " bytes at offset " + offset);
+        }
+        this.moveIndex = 0;
+        try {
+            this.readBinary(in, offset);
+        } catch (IllegalArgumentException e) {
+            this.setUp(Chess.EMPTY_POS, false);
+            throw e;
+        }
+        if (!this.initLoadedPosition()) {
+            throw new IllegalArgumentException("decode: board position is inconsistent");
+        }
+    }
+
+    private void readBinary(byte[] in, int offset) {
+        System.arraycopy(Chess.EMPTY_POS, 0, this.board, 0, 120);
+        long occupancy = 0;
+        for (int i = 0; i < 8; i++) {
+            occupancy = (occupancy << 8) | (in[offset + i] & 0xFF);
+        }
+        if (Long.bitCount(occupancy) > 32) {
+            throw new IllegalArgumentException("decode: more than 32 pieces on the board");
+        }
+        int nibble = 0;
+        for (long o = occupancy; o != 0; o &= o - 1) {
+            int b = in[offset + 8 + (nibble >> 1)];
+            int code = (nibble & 1) == 0 ? (b >>> 4) & 0x0F : b & 0x0F;
+            int type = code & 0x07;
+            if (type < Chess.PAWN || type > Chess.KING) {
+                throw new IllegalArgumentException("decode: illegal piece code " + code);
+            }
+            this.board[Bitboards.SQ120[Long.numberOfTrailingZeros(o)]] = (code & 0x08) != 0 ? type + 0x80 : type;
+            nibble++;
+        }
+        int flags = in[offset + 24];
+        this.turn = (flags & 1) != 0 ? Chess.BLACK : Chess.WHITE;
+        this.castleWkingOk = (flags & 2) != 0;
+        this.castleWqueenOk = (flags & 4) != 0;
+        this.castleBkingOk = (flags & 8) != 0;
+        this.castleBqueenOk = (flags & 16) != 0;
+        int ep = in[offset + 25] & 0xFF;
+        if (ep > 64) {
+            throw new IllegalArgumentException("decode: illegal en passant square " + ep);
+        }
+        this.enPassentTarget = ep == 0 ? 0 : Bitboards.SQ120[ep - 1];
+        this.halfmoveClock = ((in[offset + 26] & 0xFF) << 8) | (in[offset + 27] & 0xFF);
+        this.fullmoveNumber = ((in[offset + 28] & 0xFF) << 8) | (in[offset + 29] & 0xFF);
+    }
+
+    // single pass over the fen: each part is validated and stored while it is
+    // read. If the last two parts are missing (halfmove clock + fullmove no.)
+    // we still parse the game, parts after those are ignored
+    private void parseFEN(String fen) {
+        System.arraycopy(Chess.EMPTY_POS, 0, this.board, 0, 120);
+        int length = fen.length();
+        // piece placement, 8 rows from a8 to h1 separated by /
+        int pos = 0;
+        int row = 7;
+        int col = 0;
+        boolean previousWasDigit = false;
+        while (pos < length && fen.charAt(pos) != ' ') {
+            char c = fen.charAt(pos++);
+            if (c == '/') {
+                if (col != 8) {
+                    throw new IllegalArgumentException("fen: field sum is not 8 in " + fen);
+                }
+                if (row == 0) {
+                    throw new IllegalArgumentException("fen: not 8 rows in 0th part in " + fen);
+                }
+                row--;
+                col = 0;
+                previousWasDigit = false;
+            } else if (c >= '1' && c <= '8') {
+                if (previousWasDigit) {
+                    throw new IllegalArgumentException("fen: two consecutive digits in rows in " + fen);
+                }
+                col += c - '0';
+                previousWasDigit = true;
+            } else if ("pnbrqkPNBRQK".indexOf(c) >= 0) {
+                if (col < 8) {
+                    this.board[21 + row * 10 + col] = this.pieceFromSymbol(c);
+                }
+                col++;
+                previousWasDigit = false;
+            } else {
+                throw new IllegalArgumentException("fen: invalid character " + c + " in rows in " + fen);
             }
-            // validate that there are 8 alphanums in each row
-            if (field_sum != 8) {
+            if (col > 8) {
                 throw new IllegalArgumentException("fen: field sum is not 8 in " + fen);
             }
         }
-        // check that turn part is valid
-        if (!(fenParts[1].equals("w") || fenParts[1].equals("b"))) {
-            throw new IllegalArgumentException("fen: turn part is invalid in " + fen);
+        if (row != 0) {
+            throw new IllegalArgumentException("fen: not 8 rows in 0th part in " + fen);
         }
-        // check that castles part in correctly encoded using regex
-        boolean castlesMatch = fenParts[2].matches("^-|[KQABCDEFGH]{0,2}[kqabcdefgh]{0,2}$");
-        if (!castlesMatch) {
-            throw new IllegalArgumentException("fen: castles encoding is invalid in " + fen);
-        }
-        // check correct encoding of en passent squares
-        if (!fenParts[3].equals("-")) {
-            if (fenParts[1].equals("w")) {
-                // should be something like "e6" etc. if white is to move
-                // check that int value part is sixth rank
-                if (fenParts[3].length() != 2 || fenParts[3].charAt(1) != '6') {
-                    throw new IllegalArgumentException("fen: invalid e.p. encoding (white to move) in " + fen);
-                }
-            } else {
-                if (fenParts[3].length() != 2 || fenParts[3].charAt(1) != '3') {
-                    throw new IllegalArgumentException("fen: invalid e.p. encoding (black to move) in " + fen);
-                }
-            }
+        if (col != 8) {
+            throw new IllegalArgumentException("fen: field sum is not 8 in " + fen);
         }
-        // half-move counter validity (if half-move is present)
-        if ((fenParts.length >= 5) && Integer.parseInt(fenParts[4]) < 0) {
-            throw new IllegalArgumentException("fen: negative half move clock or not a number in " + fen);
-        }
-        // full move number validity (if full move number is present)
-        if ((fenParts.length >= 6) && Integer.parseInt(fenParts[5]) < 0) {
-            throw new IllegalArgumentException("fen: fullmove number not positive");
-        }
-        // set pieces
-        for (int i = 0; i < rows.length; i++) {
-            int square_index = 91 - (i * 10);
-            String row = rows[i];
-            for (int j = 0; j < row.length(); j++) {
-                char rj = row.charAt(j);
-                char rjl = Character.toLowerCase(rj);
-                if (rj == '1' || rj == '2' || rj == '3' || rj == '4' || rj == '5' || rj == '6' || rj == '7' || rj == '8') {
-                    square_index += Character.getNumericValue(rj);
-                } else if (rjl == 'p' || rjl == 'n' || rjl == 'b' || rjl == 'r' || rjl == 'q' || rjl == 'k') {
-                    int piece = this.pieceFromSymbol(rj);
-                    this.board[square_index] = piece;
-                    square_index += 1;
-                }
-            }
+        // turn
+        pos = this.nextFenPart(fen, pos);
+        int end = this.fenPartEnd(fen, pos);
+        if (end == pos) {
+            throw new IllegalArgumentException("fen: parts missing in " + fen);
         }
-        // set turn
-        if (fenParts[1].equals("w")) {
-            this.turn = Chess.WHITE;
+        if (end - pos != 1 || (fen.charAt(pos) != 'w' && fen.charAt(pos) != 'b')) {
+            throw new IllegalArgumentException("fen: turn part is invalid in " + fen);
         }
-        if (fenParts[1].equals("b")) {
-            this.turn = Chess.BLACK;
+        this.turn = fen.charAt(pos) == 'w' ? Chess.WHITE : Chess.BLACK;
+        // castling rights: "-", or up to two white then up to two black
+        // letters, where files (as in X-FEN) are accepted but ignored
+        pos = this.nextFenPart(fen, end);
+        end = this.fenPartEnd(fen, pos);
+        if (end == pos) {
+            throw new IllegalArgumentException("fen: parts missing in " + fen);
         }
         this.castleWkingOk = false;
         this.castleWqueenOk = false;
         this.castleBkingOk = false;
         this.castleBqueenOk = false;
-        for (int i = 0; i < fenParts[2].length(); i++) {
-            char ci = fenParts[2].charAt(i);
-            if (ci == 'K') {
-                this.castleWkingOk = true;
-            }
-            if (ci == 'Q') {
-                this.castleWqueenOk = true;
-            }
-            if (ci == 'k') {
-                this.castleBkingOk = true;
-            }
-            if (ci == 'q') {
-                this.castleBqueenOk = true;
+        if (end - pos != 1 || fen.charAt(pos) != '-') {
+            int white = 0;
+            int black = 0;
+            for (int i = pos; i < end; i++) {
+                char c = fen.charAt(i);
+                if (black == 0 && white < 2 && (c == 'K' || c == 'Q' || (c >= 'A' && c <= 'H'))) {
+                    white++;
+                } else if (black < 2 && (c == 'k' || c == 'q' || (c >= 'a' && c <= 'h'))) {
+                    black++;
+                } else {
+                    throw new IllegalArgumentException("fen: castles encoding is invalid in " + fen);
+                }
+                if (c == 'K') {
+                    this.castleWkingOk = true;
+                }
+                if (c == 'Q') {
+                    this.castleWqueenOk = true;
+                }
+                if (c == 'k') {
+                    this.castleBkingOk = true;
+                }
+                if (c == 'q') {
+                    this.castleBqueenOk = true;
+                }
             }
         }
-        // set en passent square
-        if (fenParts[3].equals("-")) {
-            this.enPassentTarget = 0;
-        } else {
-            int row = 10 + Character.getNumericValue(fenParts[3].charAt(1)) * 10;
-            int col = 0;
-            char c = Character.toLowerCase(fenParts[3].charAt(0));
-            if (c == 'a') {
-                col = 1;
-            }
-            if (c == 'b') {
-                col = 2;
-            }
-            if (c == 'c') {
-                col = 3;
-            }
-            if (c == 'd') {
-                col = 4;
-            }
-            if (c == 'e') {
-                col = 5;
-            }
-            if (c == 'f') {
-                col = 6;
-            }
-            if (c == 'g') {
-                col = 7;
-            }
-            if (c == 'h') {
-                col = 8;
+        // en passent square, on the sixth rank if white is to move
+        pos = this.nextFenPart(fen, end);
+        end = this.fenPartEnd(fen, pos);
+        if (end == pos) {
+            throw new IllegalArgumentException("fen: parts missing in " + fen);
+        }
+        this.enPassentTarget = 0;
+        if (end - pos != 1 || fen.charAt(pos) != '-') {
+            char epRow = this.turn == Chess.WHITE ? '6' : '3';
+            char epCol = Character.toLowerCase(fen.charAt(pos));
+            if (end - pos != 2 || epCol < 'a' || epCol > 'h' || fen.charAt(pos + 1) != epRow) {
+                throw new IllegalArgumentException("fen: invalid e.p. encoding in " + fen);
             }
-            this.enPassentTarget = row + col;
+            this.enPassentTarget = 21 + (epRow - '1') * 10 + (epCol - 'a');
         }
-        if (fenParts.length >= 5) {
-            this.halfmoveClock = Integer.parseInt(fenParts[4]);
-        } else {
-            this.halfmoveClock = 0;
+        // half-move clock and full move number, if present
+        pos = this.nextFenPart(fen, end);
+        end = this.fenPartEnd(fen, pos);
+        this.halfmoveClock = 0;
+        if (end > pos) {
+            this.halfmoveClock = this.parseFenNumber(fen, pos, end);
         }
-        if (fenParts.length >= 6) {
-            int fullMoveNumber = Integer.parseInt(fenParts[5]);
-            if (fullMoveNumber > 0) {
-                this.fullmoveNumber = fullMoveNumber;
-            } else {
-                this.fullmoveNumber = 1;
-            }
-        } else {
-            this.fullmoveNumber = 1;
+        pos = this.nextFenPart(fen, end);
+        end = this.fenPartEnd(fen, pos);
+        this.fullmoveNumber = 1;
+        if (end > pos) {
+            this.fullmoveNumber = Math.max(1, this.parseFenNumber(fen, pos, end));
         }
-        this.undoAvailable = false;
-        this.lastMoveWasNull = false;
-        if (!this.isConsistent()) {
-            throw new IllegalArgumentException("fen: board position from supplied fen is inconsistent in " + fen);
+    }
+
+    private int nextFenPart(String fen, int pos) {
+        while (pos < fen.length() && fen.charAt(pos) == ' ') {
+            pos++;
         }
-        this.initPieceList();
+        return pos;
+    }
 
-        this.zobristInitialized = false;
-        this.posHashInitialized = false;
+    private int fenPartEnd(String fen, int pos) {
+        while (pos < fen.length() && fen.charAt(pos) != ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private int parseFenNumber(String fen, int start, int end) {
+        int n = 0;
+        for (int i = start; i < end; i++) {
+            char c = fen.charAt(i);
+            if (c < '0' || c > '9' || n > 100000000) {
+                throw new IllegalArgumentException("fen: negative move counter or not a number in " + fen);
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n;
     }
 
     // reset to starting position
     public void resetToStartingPosition() {
+        this.setUp(Chess.INIT_POS, true);
+    }
 
-        this.board = new int[120];
-        this.oldBoard = new int[120];
-        this.pieceList = new int[2][7][10];
-
-        this.turn = Chess.WHITE;
-        for (int i = 0; i < 120; i++) {
-            this.board[i] = Chess.INIT_POS[i];
-            this.oldBoard[i] = 0xFF;
-        }
+    private void setUp(int[] position, boolean castlingRights) {
+        System.arraycopy(position, 0, this.board, 0, 120);
         this.initPieceList();
-        this.castleWkingOk = true;
-        this.castleWqueenOk = true;
-        this.castleBkingOk = true;
-        this.castleBqueenOk = true;
-        this.prevCastleWkingOk = false;
-        this.prevCastleWqueenOk = false;
-        this.prevCastleBkingOk = false;
-        this.prevCastleBqueenOk = false;
+        this.initBitboards();
+        this.turn = Chess.WHITE;
+        this.castleWkingOk = castlingRights;
+        this.castleWqueenOk = castlingRights;
+        this.castleBkingOk = castlingRights;
+        this.castleBqueenOk = castlingRights;
         this.enPassentTarget = 0;
         this.halfmoveClock = 0;
         this.fullmoveNumber = 1;
-        this.undoAvailable = false;
-        this.lastMoveWasNull = false;
-        this.prevHalfmoveClock = 0;
-        this.zobristInitialized = false;
-        this.posHashInitialized = false;
+        this.undoCount = 0;
+        this.zobristHash = this.computeZobristHash();
+        this.snapshot = null;
     }
 
     public Board makeCopy() {
-
         Board b = new Board();
+        b.copyFrom(this);
+        return b;
+    }
 
-        for (int i = 0; i < 120; i++) {
-            b.board[i] = this.board[i];
-            b.oldBoard[i] = this.oldBoard[i];
-        }
+    // overwrites this board with the position and undo stack of other, reusing the arrays
+    public void copyFrom(Board other) {
+        System.arraycopy(other.board, 0, this.board, 0, 120);
+        System.arraycopy(other.pieceSlot, 0, this.pieceSlot, 0, 120);
         for (int i = 0; i < 2; i++) {
             for (int j = 0; j < 7; j++) {
-                for (int k = 0; k < 10; k++) {
-                    b.pieceList[i][j][k] = this.pieceList[i][j][k];
-                }
+                System.arraycopy(other.pieceList[i][j], 0, this.pieceList[i][j], 0, 10);
             }
+            System.arraycopy(other.pieceCount[i], 0, this.pieceCount[i], 0, 7);
+            System.arraycopy(other.pieces[i], 0, this.pieces[i], 0, 7);
+            this.colors[i] = other.colors[i];
+            this.material[i] = other.material[i];
         }
+        this.occupied = other.occupied;
 
-        b.turn = this.turn;
-        b.halfmoveClock = this.halfmoveClock;
-        b.fullmoveNumber = this.fullmoveNumber;
-
-        b.zobristHash = this.zobristHash;
-        b.positionHash = this.positionHash;
-
-        b.undoAvailable = this.undoAvailable;
-        b.zobristInitialized = this.zobristInitialized;
-        b.posHashInitialized = this.posHashInitialized;
-        b.lastMoveWasNull = this.lastMoveWasNull;
-
-        b.castleWkingOk = this.castleWkingOk;
-        b.castleWqueenOk = this.castleWqueenOk;
-        b.castleBkingOk = this.castleBkingOk;
-        b.castleBqueenOk = this.castleBqueenOk;
+        this.turn = other.turn;
+        this.halfmoveClock = other.halfmoveClock;
+        this.fullmoveNumber = other.fullmoveNumber;
 
-        b.prevCastleWkingOk = this.prevCastleWkingOk;
-        b.prevCastleWqueenOk = this.prevCastleWqueenOk;
-        b.prevCastleBkingOk = this.prevCastleBkingOk;
-        b.prevCastleBqueenOk = this.prevCastleBqueenOk;
+        this.zobristHash = other.zobristHash;
 
-        b.enPassentTarget = this.enPassentTarget;
-        b.prevEnPassentTarget = this.prevEnPassentTarget;
+        this.castleWkingOk = other.castleWkingOk;
+        this.castleWqueenOk = other.castleWqueenOk;
+        this.castleBkingOk = other.castleBkingOk;
+        this.castleBqueenOk = other.castleBqueenOk;
 
-        b.prevHalfmoveClock = this.prevHalfmoveClock;
-
-        return b;
+        this.enPassentTarget = other.enPassentTarget;
 
+        if (this.undoMoves.length < other.undoCount) {
+            this.undoMoves = new int[other.undoMoves.length];
+            this.undoCaptures = new int[other.undoMoves.length];
+            this.undoStates = new int[other.undoMoves.length];
+            this.undoHashes = new long[other.undoMoves.length];
+        }
+        System.arraycopy(other.undoMoves, 0, this.undoMoves, 0, other.undoCount);
+        System.arraycopy(other.undoCaptures, 0, this.undoCaptures, 0, other.undoCount);
+        System.arraycopy(other.undoStates, 0, this.undoStates, 0, other.undoCount);
+        System.arraycopy(other.undoHashes, 0, this.undoHashes, 0, other.undoCount);
+        this.undoCount = other.undoCount;
+        this.snapshot = null;
     }
 
     public String fen() {
-        String fenString = "";
+        StringBuilder fen = new StringBuilder(90);
+        this.fen(fen);
+        return fen.toString();
+    }
+
+    // appends the fen of the position
+    public void fen(StringBuilder fen) {
         // first build board
         for (int i = 90; i >= 20; i -= 10) {
             int square_counter = 0;
             for (int j = 1; j < 9; j++) {
                 if (this.board[i + j] != Chess.EMPTY) {
-                    int piece = this.board[i + j];
-                    fenString += this.pieceToSymbol(piece);
-                    square_counter = 0;
+                    if (square_counter != 0) {
+                        fen.append((char) ('0' + square_counter));
+                        square_counter = 0;
+                    }
+                    fen.append(this.pieceToSymbol(this.board[i + j]));
                 } else {
                     square_counter += 1;
-                    if (j == 8) {
-                        char c = (char) (48 + square_counter);
-                        fenString += c;
-                    } else {
-                        if (this.board[i + j + 1] != Chess.EMPTY) {
-                            char c = (char) (48 + square_counter);
-                            fenString += c;
-                        }
-                    }
                 }
             }
+            if (square_counter != 0) {
+                fen.append((char) ('0' + square_counter));
+            }
             if (i != 20) {
-                fenString += '/';
+                fen.append('/');
             }
         }
         // write turn
         if (this.turn == Chess.WHITE) {
-            fenString += " w";
+            fen.append(" w");
         } else {
-            fenString += " b";
+            fen.append(" b");
         }
         // write castling rights
+        fen.append(' ');
         if (this.canCastleWhiteKing() || this.canCastleWhiteQueen() || this.canCastleBlackKing() || this.canCastleBlackQueen()) {
-            fenString += " ";
             if (this.canCastleWhiteKing()) {
-                fenString += "K";
+                fen.append('K');
             }
             if (this.canCastleWhiteQueen()) {
-                fenString += "Q";
+                fen.append('Q');
             }
             if (this.canCastleBlackKing()) {
-                fenString += "k";
+                fen.append('k');
             }
             if (this.canCastleBlackQueen()) {
-                fenString += "q";
+                fen.append('q');
             }
-
         } else {
-            fenString += " -";
+            fen.append('-');
         }
         // write ep target if exists
+        fen.append(' ');
         if (this.enPassentTarget != 0) {
-            fenString += " " + this.internalIdxToString(this.enPassentTarget);
+            fen.append((char) ((this.enPassentTarget % 10) + 96));
+            fen.append((char) ((this.enPassentTarget / 10) + 47));
         } else {
-            fenString += " -";
+            fen.append('-');
         }
         // add halfmove clock and fullmove counter
-        fenString += " " + this.halfmoveClock;
-        fenString += " " + this.fullmoveNumber;
-
-        return fenString;
-    }
-
-    private void removeFromPieceList(boolean color, int piece_type, int idx) {
-
-        int intColor = 0;
-        if (color) {
-            intColor = 1;
-        }
-
-        int j = -1;
-        for (int i = 0; i < 10; i++) {
-            if (this.pieceList[intColor][piece_type][i] == idx) {
-                j = i;
-                break;
-            }
-        }
-        if (j >= 0) {
-            // move all other one step further
-            for (int i = j + 1; i < 10; i++) {
-                this.pieceList[intColor][piece_type][i - 1] = this.pieceList[intColor][piece_type][i];
-            }
-            // empty last one in list
-            this.pieceList[intColor][piece_type][9] = Chess.EMPTY;
-        }
-    }
-
-    private void addToPieceList(boolean color, int piece_type, int idx) {
-
-        int intColor = 0;
-        if (color) {
-            intColor = 1;
+        fen.append(' ').append(this.halfmoveClock);
+        fen.append(' ').append(this.fullmoveNumber);
+    }
+
+    // the last entry of the list takes the place of the removed one
+    private void removeFromPieceList(int intColor, int pieceType, int idx) {
+        int slot = this.pieceSlot[idx];
+        if (slot < 0) {
+            return;
+        }
+        int[] list = this.pieceList[intColor][pieceType];
+        int last = --this.pieceCount[intColor][pieceType];
+        int moved = list[last];
+        list[slot] = moved;
+        this.pieceSlot[moved] = slot;
+        list[last] = Chess.EMPTY;
+        this.pieceSlot[idx] = -1;
+    }
+
+    private void addToPieceList(int intColor, int pieceType, int idx) {
+        int count = this.pieceCount[intColor][pieceType];
+        // more than ten pieces of a kind can only come from editing
+        // the board, those are not listed
+        if (count == 10) {
+            this.pieceSlot[idx] = -1;
+            return;
+        }
+        this.pieceList[intColor][pieceType][count] = idx;
+        this.pieceSlot[idx] = count;
+        this.pieceCount[intColor][pieceType] = count + 1;
+    }
+
+    // puts a piece on an empty square, updating mailbox, piece list and bitboards
+    private void putPiece(int idx, int piece) {
+        boolean color = piece > 0x80;
+        int pieceType = color ? piece - 0x80 : piece;
+        int intColor = color ? Chess.IBLACK : Chess.IWHITE;
+        long b = Bitboards.bit120(idx);
+        this.pieces[intColor][pieceType] |= b;
+        this.colors[intColor] |= b;
+        this.occupied |= b;
+        this.material[intColor] += Chess.PIECE_VALUES[pieceType];
+        this.board[idx] = piece;
+        this.zobristHash ^= this.zobristPieceKey(idx, piece);
+        this.addToPieceList(intColor, pieceType, idx);
+    }
+
+    // removes the piece on a square (if any), updating mailbox, piece list and bitboards
+    private void removePiece(int idx) {
+        int piece = this.board[idx];
+        if (piece == Chess.EMPTY) {
+            return;
+        }
+        boolean color = piece > 0x80;
+        int pieceType = color ? piece - 0x80 : piece;
+        int intColor = color ? Chess.IBLACK : Chess.IWHITE;
+        long b = ~Bitboards.bit120(idx);
+        this.pieces[intColor][pieceType] &= b;
+        this.colors[intColor] &= b;
+        this.occupied &= b;
+        this.material[intColor] -= Chess.PIECE_VALUES[pieceType];
+        this.board[idx] = Chess.EMPTY;
+        this.zobristHash ^= this.zobristPieceKey(idx, piece);
+        this.removeFromPieceList(intColor, pieceType, idx);
+    }
+
+    // moves a piece to an empty square, keeping its piece list slot
+    private void movePiece(int from, int to) {
+        int piece = this.board[from];
+        if (piece == Chess.EMPTY) {
+            return;
         }
-
-        for (int i = 0; i < 10; i++) {
-            if (this.pieceList[intColor][piece_type][i] == Chess.EMPTY) {
-                this.pieceList[intColor][piece_type][i] = idx;
-                break;
-            }
+        int intColor = piece > 0x80 ? Chess.IBLACK : Chess.IWHITE;
+        int pieceType = piece & 0x07;
+        long b = Bitboards.bit120(from) | Bitboards.bit120(to);
+        this.pieces[intColor][pieceType] ^= b;
+        this.colors[intColor] ^= b;
+        this.occupied ^= b;
+        this.board[from] = Chess.EMPTY;
+        this.board[to] = piece;
+        this.zobristHash ^= this.zobristPieceKey(from, piece) ^ this.zobristPieceKey(to, piece);
+        int slot = this.pieceSlot[from];
+        if (slot >= 0) {
+            this.pieceList[intColor][pieceType][slot] = to;
         }
+        this.pieceSlot[to] = slot;
+        this.pieceSlot[from] = -1;
     }
 
     public void applyNow(Move m) {
         apply(m);
         this.moveIndex++;
+        this.publishSnapshot();
     }
 
     // doesn't check legality
     public void apply(Move m) {
+        this.apply(m.encode());
+    }
 
-        if (m.isNullMove) {
+    // same as apply(Move), for a move packed by Move.encode
+    public void apply(int move) {
+
+        boolean isNullMove = Move.isNullMove(move);
+        int from = Move.getSourceSquare(move);
+        int to = Move.getTargetSquare(move);
+        int promotionPiece = Move.getPromotionPiece(move);
+        int epCapture = 0;
+        if (!isNullMove) {
+            epCapture = this.enPassentCaptureSquare(from, to);
+        }
+        this.pushUndoRecord(move, epCapture);
+        // the e.p. key depends on the side to move, so it is
+        // taken out before and put back after the move
+        this.zobristHash ^= this.zobristEpKey() ^ Chess.RANDOM_ARRAY[Chess.RANDOM_TURN];
+        if (isNullMove) {
             this.turn = !this.turn;
-            this.prevEnPassentTarget = this.enPassentTarget;
             this.enPassentTarget = 0;
-            this.lastMoveWasNull = true;
-            this.undoAvailable = true;
             if (this.turn == Chess.WHITE) {
                 this.fullmoveNumber++;
             }
         } else {
-            this.lastMoveWasNull = false;
             this.turn = !this.turn;
-            this.prevEnPassentTarget = this.enPassentTarget;
-            this.prevCastleWkingOk = this.castleWkingOk;
-            this.prevCastleWqueenOk = this.castleWqueenOk;
-            this.prevCastleBkingOk = this.castleBkingOk;
-            this.prevCastleBqueenOk = this.castleBqueenOk;
             this.enPassentTarget = 0;
             if (this.turn == Chess.WHITE) {
                 this.fullmoveNumber++;
             }
-            for (int i = 0; i < 120; i++) {
-                this.oldBoard[i] = this.board[i];
-            }
-            int oldPieceType = this.getPieceTypeAt(m.from);
-            boolean color = this.getPieceColorAt(m.from);
-            // if target field is not empty, remove from piece list
-            // this must be of oppsite color than the currently moving piece
-            if (this.board[m.to] != Chess.EMPTY) {
-                int currentTargetPiece = this.getPieceTypeAt(m.to);
-                this.removeFromPieceList(!color, currentTargetPiece, m.to);
-            }
-            // also remove the currently moving piece from the list
-            this.removeFromPieceList(color, oldPieceType, m.from);
+            int oldPieceType = this.getPieceTypeAt(from);
+            boolean color = this.getPieceColorAt(from);
+            boolean isCapture = this.board[to] != Chess.EMPTY;
             // increase halfmove clock only if no capture or pawn advance
             // happend
-            this.prevHalfmoveClock = this.halfmoveClock;
-            if (oldPieceType == Chess.PAWN || this.board[m.to] != Chess.EMPTY) {
+            if (oldPieceType == Chess.PAWN || isCapture) {
                 this.halfmoveClock = 0;
             } else {
                 this.halfmoveClock++;
@@ -580,93 +781,63 @@ public class Board {
             // if we move a pawn two steps up, set the en_passent field
             if (oldPieceType == Chess.PAWN) {
                 // white pawn moved two steps up
-                if ((m.to - m.from) == 20) {
-                    this.enPassentTarget = m.from + 10;
+                if ((to - from) == 20) {
+                    this.enPassentTarget = from + 10;
                 }
                 // black pawn moved two steps up (down)
-                if ((m.to - m.from == -20)) {
-                    this.enPassentTarget = m.from - 10;
+                if ((to - from == -20)) {
+                    this.enPassentTarget = from - 10;
                 }
             }
             // if the move is an en-passent capture,
             // remove the (non-target) corresponding pawn
-            // move is an en passent move, if
-            // a) color is white, piece type is pawn, target
-            // is up left or upright and empty
-            // b) color is black, piece type is pawn, target
-            // is down right or down left and empty
-            // also set last_move_was_ep to true
-            if (oldPieceType == Chess.PAWN) {
-                if (this.board[m.to] == Chess.EMPTY) {
-                    if (color == Chess.WHITE && ((m.to - m.from == 9) || (m.to - m.from) == 11)) {
-                        // remove captured pawn
-                        this.board[m.to - 10] = Chess.EMPTY;
-                        // also remove from piece list
-                        this.removeFromPieceList(!color, Chess.PAWN, m.to - 10);
-                    }
-                    if (color == Chess.BLACK && ((m.from - m.to == 9) || (m.from - m.to) == 11)) {
-                        // remove captured pawn
-                        this.board[m.to + 10] = Chess.EMPTY;
-                        // also remove from piece list
-                        this.removeFromPieceList(!color, Chess.PAWN, m.to + 10);
-                    }
-                }
+            if (epCapture != 0) {
+                this.removePiece(epCapture);
+            }
+            // if target field is not empty, remove the captured piece
+            // this must be of oppsite color than the currently moving piece
+            if (isCapture) {
+                this.removePiece(to);
             }
             // if the move is a promotion, the target
             // field becomes the promotion choice
-            if (m.promotionPiece != Chess.EMPTY) {
+            if (promotionPiece != Chess.EMPTY) {
+                this.removePiece(from);
                 // true means black
                 if (color == Chess.BLACK) {
                     // +128 sets 7th bit to true (means black)
-                    this.board[m.to] = m.promotionPiece + 128;
-                    // add to piece list
-                    this.addToPieceList(Chess.BLACK, m.promotionPiece, m.to);
+                    this.putPiece(to, promotionPiece + 128);
                 } else {
-                    this.board[m.to] = m.promotionPiece;
-                    this.addToPieceList(Chess.WHITE, m.promotionPiece, m.to);
+                    this.putPiece(to, promotionPiece);
                 }
             } else {
                 // otherwise the target is the piece on the from field
-                this.board[m.to] = this.board[m.from];
-                this.addToPieceList(color, oldPieceType, m.to);
+                this.movePiece(from, to);
             }
-            this.board[m.from] = Chess.EMPTY;
             // check if the move is castles, i.e. 0-0 or 0-0-0
             // then we also need to move the rook
             // white kingside
             if (oldPieceType == Chess.KING) {
                 if (color == Chess.WHITE) {
-                    if (m.from == Chess.E1 && m.to == Chess.G1) {
-                        this.board[Chess.F1] = this.board[Chess.H1];
-                        this.board[Chess.H1] = Chess.EMPTY;
+                    if (from == Chess.E1 && to == Chess.G1) {
+                        this.movePiece(Chess.H1, Chess.F1);
                         this.setCastleWKing(false);
-                        this.removeFromPieceList(Chess.WHITE, Chess.ROOK, Chess.H1);
-                        this.addToPieceList(Chess.WHITE, Chess.ROOK, Chess.F1);
                     }
                     // white queenside
-                    if (m.from == Chess.E1 && m.to == Chess.C1) {
-                        this.board[Chess.D1] = this.board[Chess.A1];
-                        this.board[Chess.A1] = Chess.EMPTY;
+                    if (from == Chess.E1 && to == Chess.C1) {
+                        this.movePiece(Chess.A1, Chess.D1);
                         this.setCastleWQueen(false);
-                        this.removeFromPieceList(Chess.WHITE, Chess.ROOK, Chess.A1);
-                        this.addToPieceList(Chess.WHITE, Chess.ROOK, Chess.D1);
                     }
                 } else if (color == Chess.BLACK) {
                     // black kingside
-                    if (m.from == Chess.E8 && m.to == Chess.G8) {
-                        this.board[Chess.F8] = this.board[Chess.H8];
-                        this.board[Chess.H8] = Chess.EMPTY;
+                    if (from == Chess.E8 && to == Chess.G8) {
+                        this.movePiece(Chess.H8, Chess.F8);
                         this.setCastleBKing(false);
-                        this.removeFromPieceList(Chess.BLACK, Chess.ROOK, Chess.H8);
-                        this.addToPieceList(Chess.BLACK, Chess.ROOK, Chess.F8);
                     }
                     // black queenside
-                    if (m.from == Chess.E8 && m.to == Chess.C8) {
-                        this.board[Chess.D8] = this.board[Chess.A8];
-                        this.board[Chess.A8] = Chess.EMPTY;
+                    if (from == Chess.E8 && to == Chess.C8) {
+                        this.movePiece(Chess.A8, Chess.D8);
                         this.setCastleBQueen(false);
-                        this.removeFromPieceList(Chess.BLACK, Chess.ROOK, Chess.A8);
-                        this.addToPieceList(Chess.BLACK, Chess.ROOK, Chess.D8);
                     }
                 }
             }
@@ -676,18 +847,18 @@ public class Board {
             // opposite side
             if (color == Chess.WHITE) {
                 if (oldPieceType == Chess.KING) {
-                    if (m.from == Chess.E1 && m.to != Chess.G1) {
+                    if (from == Chess.E1 && to != Chess.G1) {
                         this.setCastleWKing(false);
                     }
-                    if (m.from == Chess.E1 && m.to != Chess.C1) {
+                    if (from == Chess.E1 && to != Chess.C1) {
                         this.setCastleWQueen(false);
                     }
                 }
                 if (oldPieceType == Chess.ROOK) {
-                    if (m.from == Chess.A1) {
+                    if (from == Chess.A1) {
                         this.setCastleWQueen(false);
                     }
-                    if (m.from == Chess.H1) {
+                    if (from == Chess.H1) {
                         this.setCastleWKing(false);
                     }
                 }
@@ -696,42 +867,41 @@ public class Board {
                 // or black has moved rook prev.
                 // [even though: in the latter case, should be already
                 // done by check above in prev. moves]
-                if (m.to == Chess.H8) {
+                if (to == Chess.H8) {
                     this.setCastleBKing(false);
                 }
-                if (m.to == Chess.A8) {
+                if (to == Chess.A8) {
                     this.setCastleBQueen(false);
                 }
             }
             // same for black
             if (color == Chess.BLACK) {
                 if (oldPieceType == Chess.KING) {
-                    if (m.from == Chess.E8 && m.to != Chess.G8) {
+                    if (from == Chess.E8 && to != Chess.G8) {
                         this.setCastleBKing(false);
                     }
-                    if (m.from == Chess.E8 && m.to != Chess.C8) {
+                    if (from == Chess.E8 && to != Chess.C8) {
                         this.setCastleBQueen(false);
                     }
                 }
                 if (oldPieceType == Chess.ROOK) {
-                    if (m.from == Chess.A8) {
+                    if (from == Chess.A8) {
                         this.setCastleBQueen(false);
                     }
-                    if (m.from == Chess.H8) {
+                    if (from == Chess.H8) {
                         this.setCastleBKing(false);
                     }
                 }
                 // black moves piece to A1 or H1
-                if (m.to == Chess.H1) {
+                if (to == Chess.H1) {
                     this.setCastleWKing(false);
                 }
-                if (m.to == Chess.A1) {
+                if (to == Chess.A1) {
                     this.setCastleWQueen(false);
                 }
             }
-            // after move is applied, can revert to the previous position
-            this.undoAvailable = true;
         }
+        this.zobristHash ^= this.zobristEpKey();
 
     }
 
@@ -739,49 +909,122 @@ public class Board {
         return moveIndex;
     }
 
+    // takes back the last applied move, can be called
+    // as long as there are moves on the undo stack
     public void undo() {
-        if (!this.undoAvailable) {
+        if (this.undoCount == 0) {
             throw new IllegalArgumentException("must call board.apply(move) each time before calling undo() ");
-        } else {
-            if (this.lastMoveWasNull) {
-                this.turn = !this.turn;
-                this.enPassentTarget = this.prevEnPassentTarget;
-                this.prevEnPassentTarget = 0;
-                this.lastMoveWasNull = false;
-                this.undoAvailable = true;
+        }
+        this.undoCount--;
+        int move = this.undoMoves[this.undoCount];
+        int state = this.undoStates[this.undoCount];
+        this.turn = !this.turn;
+        if (this.turn == Chess.BLACK) {
+            this.fullmoveNumber--;
+        }
+        if ((move & UNDO_NULL) == 0) {
+            int from = Move.getSourceSquare(move);
+            int to = Move.getTargetSquare(move);
+            int promotionPiece = Move.getPromotionPiece(move);
+            int piece = this.board[to];
+            if (promotionPiece != Chess.EMPTY) {
+                piece = this.turn == Chess.WHITE ? Chess.WHITE_PAWN : Chess.BLACK_PAWN;
+                this.removePiece(to);
+                this.putPiece(from, piece);
             } else {
-                for (int i = 0; i < 120; i++) {
-                    this.board[i] = this.oldBoard[i];
+                this.movePiece(to, from);
+            }
+            int captured = this.undoCaptures[this.undoCount];
+            if (captured != Chess.EMPTY) {
+                if ((move & UNDO_EP) != 0) {
+                    this.putPiece(this.turn == Chess.WHITE ? to - 10 : to + 10, captured);
+                } else {
+                    this.putPiece(to, captured);
+                }
+            }
+            // put back the rook if the move was castles
+            if (piece == Chess.WHITE_KING && from == Chess.E1) {
+                if (to == Chess.G1) {
+                    this.movePiece(Chess.F1, Chess.H1);
                 }
-                this.undoAvailable = false;
-                this.enPassentTarget = this.prevEnPassentTarget;
-                this.prevEnPassentTarget = 0;
-                this.castleWkingOk = this.prevCastleWkingOk;
-                this.castleWqueenOk = this.prevCastleWqueenOk;
-                this.castleBkingOk = this.prevCastleBkingOk;
-                this.castleBqueenOk = this.prevCastleBqueenOk;
-                this.turn = !this.turn;
-                this.halfmoveClock = this.prevHalfmoveClock;
-                this.prevHalfmoveClock = 0;
-                if (this.turn == Chess.BLACK) {
-                    this.fullmoveNumber--;
+                if (to == Chess.C1) {
+                    this.movePiece(Chess.D1, Chess.A1);
+                }
+            }
+            if (piece == Chess.BLACK_KING && from == Chess.E8) {
+                if (to == Chess.G8) {
+                    this.movePiece(Chess.F8, Chess.H8);
+                }
+                if (to == Chess.C8) {
+                    this.movePiece(Chess.D8, Chess.A8);
                 }
             }
         }
-        this.initPieceList();
+        this.castleWkingOk = (state & 1) != 0;
+        this.castleWqueenOk = (state & 2) != 0;
+        this.castleBkingOk = (state & 4) != 0;
+        this.castleBqueenOk = (state & 8) != 0;
+        this.enPassentTarget = (state >>> 4) & 0x7F;
+        this.halfmoveClock = state >>> 11;
+        this.zobristHash = this.undoHashes[this.undoCount];
     }
 
-    private String internalIdxToString(int idx) {
-        if (idx < 21 || idx > 98) {
-            throw new IllegalArgumentException("called idx_to_str but idx is in fringe: " + idx);
+    // saves what undo() can't recompute: the move, the captured piece,
+    // castling rights, e.p. target, halfmove clock and hash before the move
+    private void pushUndoRecord(int move, int epCapture) {
+        if (this.undoCount == this.undoMoves.length) {
+            int capacity = 2 * this.undoCount;
+            this.undoMoves = Arrays.copyOf(this.undoMoves, capacity);
+            this.undoCaptures = Arrays.copyOf(this.undoCaptures, capacity);
+            this.undoStates = Arrays.copyOf(this.undoStates, capacity);
+            this.undoHashes = Arrays.copyOf(this.undoHashes, capacity);
+        }
+        int captured = Chess.EMPTY;
+        if (Move.isNullMove(move)) {
+            move = UNDO_NULL;
+        } else if (epCapture != 0) {
+            move |= UNDO_EP;
+            captured = this.board[epCapture];
         } else {
-            char row = (char) ((idx / 10) + 47);
-            char col = (char) ((idx % 10) + 96);
-            String s = "";
-            s += col;
-            s += row;
-            return s;
+            captured = this.board[Move.getTargetSquare(move)];
+        }
+        int state = this.enPassentTarget << 4 | this.halfmoveClock << 11;
+        if (this.castleWkingOk) {
+            state |= 1;
+        }
+        if (this.castleWqueenOk) {
+            state |= 2;
+        }
+        if (this.castleBkingOk) {
+            state |= 4;
         }
+        if (this.castleBqueenOk) {
+            state |= 8;
+        }
+        this.undoMoves[this.undoCount] = move;
+        this.undoCaptures[this.undoCount] = captured;
+        this.undoStates[this.undoCount] = state;
+        this.undoHashes[this.undoCount] = this.zobristHash;
+        this.undoCount++;
+    }
+
+    // square of the pawn taken by an en-passent capture, 0 if m is not one
+    // move is an en passent move, if
+    // a) color is white, piece type is pawn, target
+    // is up left or upright and empty
+    // b) color is black, piece type is pawn, target
+    // is down right or down left and empty
+    private int enPassentCaptureSquare(int from, int to) {
+        if (this.board[to] != Chess.EMPTY || this.board[from] == Chess.EMPTY || this.getPieceTypeAt(from) != Chess.PAWN) {
+            return 0;
+        }
+        if (this.getPieceColorAt(from) == Chess.WHITE && ((to - from == 9) || (to - from) == 11)) {
+            return to - 10;
+        }
+        if (this.getPieceColorAt(from) == Chess.BLACK && ((from - to == 9) || (from - to) == 11)) {
+            return to + 10;
+        }
+        return 0;
     }
 
     // private boolean isOffside(int internalCoordinate) {
@@ -797,372 +1040,524 @@ public class Board {
     }
 
     public ArrayList<Move> pseudoLegalMoves(int internalFromSquare, int internalToSquare, int pieceType, boolean genCastleMoves, boolean color) {
+        MoveList moves = new MoveList();
+        this.pseudoLegalMoves(moves, internalFromSquare, internalToSquare, pieceType, genCastleMoves, color);
+        return moves.toMoves();
+    }
+
+    public void pseudoLegalMoves(MoveList moves) {
+        this.pseudoLegalMoves(moves, Chess.ANY_SQUARE, Chess.ANY_SQUARE, Chess.ANY_PIECE, true, this.turn);
+    }
+
+    // clears moves and fills it with the pseudo legal moves
+    public void pseudoLegalMoves(MoveList moves, int internalFromSquare, int internalToSquare, int pieceType, boolean genCastleMoves, boolean color) {
+        this.generateMoves(moves, internalFromSquare, internalToSquare, pieceType, genCastleMoves, color, false);
+    }
+
+    // with legalOnly, the checkers and pinned pieces are computed first:
+    // in check, other pieces may only capture the checker or block, and
+    // a pinned piece may only move along the line of its pin. King moves
+    // are tested against the attacks with the king taken off the board.
+    // Castling and en-passent are the only moves still tested one by one
+    private void generateMoves(MoveList moves, int internalFromSquare, int internalToSquare, int pieceType, boolean genCastleMoves, boolean color, boolean legalOnly) {
+        this.generateMoves(moves, internalFromSquare, internalToSquare, pieceType, genCastleMoves, color, legalOnly, GEN_ALL);
+    }
+
+    // same, restricted to one kind of moves (GEN_CAPTURES, GEN_PROMOTIONS, GEN_QUIETS,
+    // GEN_QUIET_CHECKS)
+    private void generateMoves(MoveList moves, int internalFromSquare, int internalToSquare, int pieceType, boolean genCastleMoves, boolean color, boolean legalOnly, int kind) {
 
         int intColor = 0;
         if (color) {
             intColor = 1;
         }
-
-        ArrayList<Move> moves = new ArrayList<Move>();
+        long own = this.colors[intColor];
+        long enemy = this.colors[1 - intColor];
+        // restrict generated targets if we generate only moves to a certain square
+        long targetMask = -1L;
+        if (internalToSquare != Chess.ANY_SQUARE) {
+            targetMask = Bitboards.bit120(internalToSquare);
+        }
+        // pawn captures, pawn pushes and the targets of the other pieces
+        long pawnCaptureMask = targetMask;
+        long pawnPushMask = targetMask;
+        if (kind == GEN_CAPTURES) {
+            pawnPushMask = 0;
+            targetMask &= enemy;
+        } else if (kind == GEN_PROMOTIONS) {
+            pawnCaptureMask = 0;
+            pawnPushMask &= LAST_RANKS;
+            targetMask = 0;
+        } else if (kind == GEN_QUIETS || kind == GEN_QUIET_CHECKS) {
+            pawnCaptureMask = 0;
+            pawnPushMask &= ~LAST_RANKS;
+            targetMask &= ~this.occupied;
+        }
+        // targets from which each piece type attacks the enemy king, and the own pieces that
+        // uncover a slider on it when they leave its line, see checkTargets()
+        long pawnChecks = -1L;
+        long knightChecks = -1L;
+        long bishopChecks = -1L;
+        long rookChecks = -1L;
+        long discoverers = 0;
+        int enemyKingSq = 0;
+        if (kind == GEN_QUIET_CHECKS) {
+            long enemyKing = this.pieces[1 - intColor][Chess.KING];
+            if (Long.bitCount(enemyKing) != 1) {
+                // checks are only found for a single king
+                this.generateMoves(moves, internalFromSquare, internalToSquare, pieceType, genCastleMoves, color, legalOnly, GEN_QUIETS);
+                this.retainChecks(moves);
+                return;
+            }
+            enemyKingSq = Long.numberOfTrailingZeros(enemyKing);
+            pawnChecks = Bitboards.PAWN_ATTACKS[1 - intColor][enemyKingSq];
+            knightChecks = Bitboards.KNIGHT_ATTACKS[enemyKingSq];
+            bishopChecks = Bitboards.bishopAttacks(enemyKingSq, this.occupied);
+            rookChecks = Bitboards.rookAttacks(enemyKingSq, this.occupied);
+            discoverers = this.soleBlockers(enemyKingSq, intColor, intColor);
+        }
+        if (kind != GEN_ALL && kind != GEN_QUIETS && kind != GEN_QUIET_CHECKS) {
+            genCastleMoves = false;
+        }
+
+        moves.clear();
+        long checkMask = -1L;
+        long pinned = 0;
+        int kingSq = 0;
+        if (legalOnly) {
+            long king = this.pieces[intColor][Chess.KING];
+            if (Long.bitCount(king) != 1) {
+                // without a king there are no legal moves, with several kings
+                // every pseudo legal move is tested
+                if (king != 0) {
+                    this.generateMoves(moves, internalFromSquare, internalToSquare, pieceType, genCastleMoves, color, false, kind);
+                    this.retainLegal(moves);
+                }
+                return;
+            }
+            kingSq = Long.numberOfTrailingZeros(king);
+            long checkers = this.attackersOf(kingSq, !color, this.occupied);
+            if (checkers != 0) {
+                genCastleMoves = false;
+                if ((checkers & (checkers - 1)) != 0) {
+                    // double check, only the king can move
+                    checkMask = 0;
+                } else {
+                    checkMask = checkers | Bitboards.between(kingSq, Long.numberOfTrailingZeros(checkers));
+                }
+            }
+            pinned = this.soleBlockers(kingSq, 1 - intColor, intColor);
+        }
         // pawn moves
         if (pieceType == Chess.ANY_PIECE || pieceType == Chess.PAWN) {
-            for (int i = 0; i < 10; i++) {
+            int startRank = 1;
+            int promotionRank = 7;
+            if (color == Chess.BLACK) {
+                startRank = 6;
+                promotionRank = 0;
+            }
+            long epMask = 0;
+            if (this.enPassentTarget != 0) {
+                epMask = Bitboards.bit120(this.enPassentTarget);
+            }
+            long epCapturers = 0;
+            for (int i = 0; i < this.pieceCount[intColor][Chess.PAWN]; i++) {
                 int from = this.pieceList[intColor][Chess.PAWN][i];
-                if (from == Chess.EMPTY) { // we reached the end of the piece list
-                    break;
-                }
                 // skip if we generate only moves from a certain square
                 if (internalFromSquare != Chess.ANY_SQUARE && internalFromSquare != from) {
                     continue;
                 }
-                // assert(this->board[from] != 0xff);
-                int piece_idx = Chess.IDX_WPAWN;
-                if (color == Chess.BLACK) {
-                    piece_idx = Chess.IDX_BPAWN;
-                }
+                int sq = Bitboards.SQ64[from];
                 // take up right, or up left
-                for (int j = 3; j <= 4; j++) {
-                    int idx = from + Chess.DIR_TABLE[piece_idx][j];
-                    if ((internalToSquare == Chess.ANY_SQUARE || idx == internalToSquare) && this.board[idx] != 0xFF) {
-                        if ((this.board[idx] != 0 && color == Chess.BLACK && (getPieceColorAt(idx) == Chess.WHITE))
-                                || (this.board[idx] != 0 && color == Chess.WHITE && (getPieceColorAt(idx) == Chess.BLACK))) {
-                            // if it's a promotion square, add four moves
-                            if ((color == Chess.WHITE && (idx / 10 == 9)) || (color == Chess.BLACK && (idx / 10 == 2))) {
-                                // assert(this->board[from] != 0xff);
-                                moves.add(new Move(from, idx, Chess.QUEEN));
-                                moves.add(new Move(from, idx, Chess.ROOK));
-                                moves.add(new Move(from, idx, Chess.BISHOP));
-                                moves.add(new Move(from, idx, Chess.KNIGHT));
-                            } else {
-                                // assert(this->board[from] != 0xff);
-                                moves.add(new Move(from, idx));
-                            }
-                        }
-                    }
-                }
-                // move one (j=1) or two (j=2) up (or down in the case of black)
-                int idx_1up = from + Chess.DIR_TABLE[piece_idx][1];
-                int idx_2up = from + Chess.DIR_TABLE[piece_idx][2];
-                if ((internalToSquare == Chess.ANY_SQUARE || idx_2up == internalToSquare) && this.board[idx_2up] != 0xFF) {
-                    if ((color == Chess.WHITE && (from / 10 == 3)) || (color == Chess.BLACK && (from / 10 == 8))) {
-                        // means we have a white/black pawn in inital position, direct square
-                        // in front is empty => allow to move two forward
-                        if (this.board[idx_1up] == 0 && this.board[idx_2up] == 0) {
-                            // assert(this->board[from] != 0xff);
-                            moves.add(new Move(from, idx_2up));
-                        }
-                    }
-                }
-                if ((internalToSquare == Chess.ANY_SQUARE || idx_1up == internalToSquare) && this.board[idx_1up] == 0) {
-                    // if it's a promotion square, add four moves
-                    if ((color == Chess.WHITE && (idx_1up / 10 == 9)) || (color == Chess.BLACK && (idx_1up / 10 == 2))) {
-                        // assert(this->board[from] != 0xff);
-                        moves.add(new Move(from, idx_1up, Chess.QUEEN));
-                        moves.add(new Move(from, idx_1up, Chess.ROOK));
-                        moves.add(new Move(from, idx_1up, Chess.BISHOP));
-                        moves.add(new Move(from, idx_1up, Chess.KNIGHT));
-                    } else {
-                        // assert(this->board[from] != 0xff);
-                        moves.add(new Move(from, idx_1up));
-                    }
-                }
+                long allowed = checkMask & this.pinMask(sq, pinned, kingSq);
+                long captures = Bitboards.PAWN_ATTACKS[intColor][sq] & enemy & allowed & pawnCaptureMask;
+                // move one or two up (or down in the case of black)
+                long pushes = this.pawnPush(Bitboards.bit(sq), color) & ~this.occupied;
+                // pawn in inital position, direct square
+                // in front is empty => allow to move two forward
+                if (pushes != 0 && sq / 8 == startRank) {
+                    pushes |= this.pawnPush(pushes, color) & ~this.occupied;
+                }
+                pushes &= allowed & pawnPushMask & checkTargets(pawnChecks, sq, discoverers, enemyKingSq);
+                this.addPawnMoves(moves, from, captures | pushes, promotionRank);
                 // finally, potential en-passent capture is handled
-                // left up
-                if (internalToSquare == Chess.ANY_SQUARE || internalToSquare == this.enPassentTarget) {
-                    if (color == Chess.WHITE && (this.enPassentTarget - from) == 9) {
-                        // assert(this.board[from] != 0xff);
-                        Move m = new Move(from, this.enPassentTarget);
-                        moves.add(m);
-                    }
-                    // right up
-                    if (color == Chess.WHITE && (this.enPassentTarget - from) == 11) {
-                        // assert(this->board[from] != 0xff);
-                        Move m = new Move(from, this.enPassentTarget);
-                        moves.add(m);
-                    }
-                    // left down
-                    if (color == Chess.BLACK && (this.enPassentTarget - from) == -9) {
-                        // assert(this->board[from] != 0xff);
-                        Move m = new Move(from, this.enPassentTarget);
-                        moves.add(m);
-                    }
-                    if (color == Chess.BLACK && (this.enPassentTarget - from) == -11) {
-                        // assert(this->board[from] != 0xff);
-                        Move m = new Move(from, this.enPassentTarget);
-                        moves.add(m);
-                    }
+                if ((Bitboards.PAWN_ATTACKS[intColor][sq] & epMask & pawnCaptureMask) != 0) {
+                    epCapturers |= Bitboards.bit(sq);
                 }
             }
+            // an e.p. capture removes two pieces from a rank, so it is just tried.
+            // That happens after the loop, as apply and undo reorder the piece list
+            while (epCapturers != 0) {
+                int move = Move.encode(Bitboards.SQ120[Long.numberOfTrailingZeros(epCapturers)], this.enPassentTarget, Chess.EMPTY);
+                if (!legalOnly || this.isPseudoALegal(move)) {
+                    moves.add(move);
+                }
+                epCapturers &= epCapturers - 1;
+            }
         }
         if (pieceType == Chess.ANY_PIECE || pieceType == Chess.KNIGHT) {
-            for (int i = 0; i < 10; i++) {
+            for (int i = 0; i < this.pieceCount[intColor][Chess.KNIGHT]; i++) {
                 int from = this.pieceList[intColor][Chess.KNIGHT][i];
-                if (from == Chess.EMPTY) {
-                    break;
-                }
                 // skip if we generate only moves from a certain square
                 if (internalFromSquare != Chess.ANY_SQUARE && internalFromSquare != from) {
                     continue;
                 }
-                // assert(this->board[from] != 0xff);
-                int lookup_idx = Chess.IDX_KNIGHT;
-                for (int j = 1; j <= Chess.DIR_TABLE[lookup_idx][0]; j++) {
-                    int idx = from + Chess.DIR_TABLE[lookup_idx][j];
-                    if ((internalToSquare == Chess.ANY_SQUARE || idx == internalToSquare) && this.board[idx] != 0xFF) {
-                        if (this.board[idx] == 0 || (this.getPieceColorAt(idx) != color)) {
-                            moves.add(new Move(from, idx));
-                        }
-                    }
-                }
+                int sq = Bitboards.SQ64[from];
+                long targets = Bitboards.KNIGHT_ATTACKS[sq] & ~own & targetMask & checkMask & this.pinMask(sq, pinned, kingSq)
+                        & checkTargets(knightChecks, sq, discoverers, enemyKingSq);
+                this.addMoves(moves, from, targets);
             }
         }
         if (pieceType == Chess.ANY_PIECE || pieceType == Chess.KING) {
-            for (int i = 0; i < 10; i++) {
+            for (int i = 0; i < this.pieceCount[intColor][Chess.KING]; i++) {
                 int from = this.pieceList[intColor][Chess.KING][i];
-                if (from == Chess.EMPTY) {
-                    break;
-                }
                 // skip if we generate only moves from a certain square
                 if (internalFromSquare != Chess.ANY_SQUARE && internalFromSquare != from) {
                     continue;
                 }
-                // assert(this->board[from] != 0xff);
-                int lookup_idx = Chess.IDX_KING;
-                for (int j = 1; j <= Chess.DIR_TABLE[lookup_idx][0]; j++) {
-                    int idx = from + Chess.DIR_TABLE[lookup_idx][j];
-                    if ((internalToSquare == Chess.ANY_SQUARE || idx == internalToSquare) && this.board[idx] != 0xFF) {
-                        if (this.board[idx] == 0 || (this.getPieceColorAt(idx) != color)) {
-                            moves.add(new Move(from, idx));
-                        }
-                    }
+                int sq = Bitboards.SQ64[from];
+                // the king only checks by uncovering a slider
+                long targets = Bitboards.KING_ATTACKS[sq] & ~own & targetMask & checkTargets(kind == GEN_QUIET_CHECKS ? 0 : -1L, sq, discoverers, enemyKingSq);
+                if (legalOnly) {
+                    targets = this.safeKingTargets(sq, targets, color);
                 }
+                this.addMoves(moves, from, targets);
             }
         }
         if (pieceType == Chess.ANY_PIECE || pieceType == Chess.ROOK) {
-            for (int i = 0; i < 10; i++) {
+            for (int i = 0; i < this.pieceCount[intColor][Chess.ROOK]; i++) {
                 int from = this.pieceList[intColor][Chess.ROOK][i];
-                if (from == Chess.EMPTY) {
-                    break;
-                }
                 // skip if we generate only moves from a certain square
                 if (internalFromSquare != Chess.ANY_SQUARE && internalFromSquare != from) {
                     continue;
                 }
-                // assert(this->board[from] != 0xff);
-                int lookup_idx = Chess.IDX_ROOK;
-                for (int j = 1; j <= Chess.DIR_TABLE[lookup_idx][0]; j++) {
-                    int idx = from + Chess.DIR_TABLE[lookup_idx][j];
-                    boolean stop = false;
-                    while (!stop) {
-                        if (this.board[idx] != 0xFF) {
-                            if (this.board[idx] == 0) {
-                                if (internalToSquare == Chess.ANY_SQUARE || internalToSquare == idx) {
-                                    moves.add(new Move(from, idx));
-                                }
-                            } else {
-                                stop = true;
-                                if (this.getPieceColorAt(idx) != color) {
-                                    if (internalToSquare == Chess.ANY_SQUARE || internalToSquare == idx) {
-                                        moves.add(new Move(from, idx));
-                                    }
-                                }
-                            }
-                            idx = idx + Chess.DIR_TABLE[lookup_idx][j];
-                        } else {
-                            stop = true;
-                        }
-                    }
-                }
+                int sq = Bitboards.SQ64[from];
+                long targets = Bitboards.rookAttacks(sq, this.occupied) & ~own & targetMask & checkMask & this.pinMask(sq, pinned, kingSq)
+                        & checkTargets(rookChecks, sq, discoverers, enemyKingSq);
+                this.addMoves(moves, from, targets);
             }
         }
         if (pieceType == Chess.ANY_PIECE || pieceType == Chess.BISHOP) {
-            for (int i = 0; i < 10; i++) {
+            for (int i = 0; i < this.pieceCount[intColor][Chess.BISHOP]; i++) {
                 int from = this.pieceList[intColor][Chess.BISHOP][i];
-                if (from == Chess.EMPTY) {
-                    break;
-                }
                 // skip if we generate only moves from a certain square
                 if (internalFromSquare != Chess.ANY_SQUARE && internalFromSquare != from) {
                     continue;
                 }
-                int lookup_idx = Chess.IDX_BISHOP;
-                for (int j = 1; j <= Chess.DIR_TABLE[lookup_idx][0]; j++) {
-                    int idx = from + Chess.DIR_TABLE[lookup_idx][j];
-                    boolean stop = false;
-                    while (!stop) {
-                        if (this.board[idx] != 0xFF) {
-                            if (this.board[idx] == 0) {
-                                if (internalToSquare == Chess.ANY_SQUARE || internalToSquare == idx) {
-                                    moves.add(new Move(from, idx));
-                                }
-                            } else {
-                                stop = true;
-                                if (this.getPieceColorAt(idx) != color) {
-                                    if (internalToSquare == Chess.ANY_SQUARE || internalToSquare == idx) {
-                                        moves.add(new Move(from, idx));
-                                    }
-                                }
-                            }
-                            idx = idx + Chess.DIR_TABLE[lookup_idx][j];
-                        } else {
-                            stop = true;
-                        }
-                    }
-                }
+                int sq = Bitboards.SQ64[from];
+                long targets = Bitboards.bishopAttacks(sq, this.occupied) & ~own & targetMask & checkMask & this.pinMask(sq, pinned, kingSq)
+                        & checkTargets(bishopChecks, sq, discoverers, enemyKingSq);
+                this.addMoves(moves, from, targets);
             }
         }
         if (pieceType == Chess.ANY_PIECE || pieceType == Chess.QUEEN) {
-            for (int i = 0; i < 10; i++) {
+            for (int i = 0; i < this.pieceCount[intColor][Chess.QUEEN]; i++) {
                 int from = this.pieceList[intColor][Chess.QUEEN][i];
-                if (from == Chess.EMPTY) {
-                    break;
-                }
                 // skip if we generate only moves from a certain square
                 if (internalFromSquare != Chess.ANY_SQUARE && internalFromSquare != from) {
                     continue;
                 }
-                int lookup_idx = Chess.IDX_QUEEN;
-                for (int j = 1; j <= Chess.DIR_TABLE[lookup_idx][0]; j++) {
-                    int idx = from + Chess.DIR_TABLE[lookup_idx][j];
-                    boolean stop = false;
-                    while (!stop) {
-                        if (this.board[idx] != 0xFF) {
-                            if (this.board[idx] == 0) {
-                                if (internalToSquare == Chess.ANY_SQUARE || internalToSquare == idx) {
-                                    moves.add(new Move(from, idx));
-                                }
-                            } else {
-                                stop = true;
-                                if (this.getPieceColorAt(idx) != color) {
-                                    if (internalToSquare == Chess.ANY_SQUARE || internalToSquare == idx) {
-                                        moves.add(new Move(from, idx));
-                                    }
-                                }
-                            }
-                            idx = idx + Chess.DIR_TABLE[lookup_idx][j];
-                        } else {
-                            stop = true;
-                        }
-                    }
-                }
+                int sq = Bitboards.SQ64[from];
+                long targets = Bitboards.queenAttacks(sq, this.occupied) & ~own & targetMask & checkMask & this.pinMask(sq, pinned, kingSq)
+                        & checkTargets(bishopChecks | rookChecks, sq, discoverers, enemyKingSq);
+                this.addMoves(moves, from, targets);
             }
         }
         if (genCastleMoves) {
+            int castlesStart = moves.size();
             if (color == Chess.WHITE) {
                 // check for castling
                 // white kingside
                 if (this.board[Chess.E1] != 0 && this.canCastleWhiteKing() && this.board[Chess.H1] != 0 && this.getPieceColorAt(Chess.E1) == Chess.WHITE
                         && this.getPieceColorAt(Chess.H1) == Chess.WHITE && this.getPieceTypeAt(Chess.E1) == Chess.KING && this.getPieceTypeAt(Chess.H1) == Chess.ROOK && this.board[Chess.F1] == 0
-                        && this.board[Chess.G1] == 0) {
-                    moves.add(new Move(Chess.E1, Chess.G1));
+                        && this.board[Chess.G1] == 0 && (!legalOnly || (!this.isAttacked(Chess.F1, Chess.BLACK) && !this.isAttacked(Chess.G1, Chess.BLACK)))) {
+                    moves.add(Move.encode(Chess.E1, Chess.G1, Chess.EMPTY));
                 }
                 // white queenside
                 if (this.board[Chess.E1] != 0 && this.canCastleWhiteQueen() && this.board[Chess.A1] != 0 && this.getPieceColorAt(Chess.E1) == Chess.WHITE
                         && this.getPieceColorAt(Chess.A1) == Chess.WHITE && this.getPieceTypeAt(Chess.E1) == Chess.KING && this.getPieceTypeAt(Chess.A1) == Chess.ROOK && this.board[Chess.D1] == 0
-                        && this.board[Chess.C1] == 0 && this.board[Chess.B1] == 0) {
-                    moves.add(new Move(Chess.E1, Chess.C1));
+                        && this.board[Chess.C1] == 0 && this.board[Chess.B1] == 0 && (!legalOnly || (!this.isAttacked(Chess.D1, Chess.BLACK) && !this.isAttacked(Chess.C1, Chess.BLACK)))) {
+                    moves.add(Move.encode(Chess.E1, Chess.C1, Chess.EMPTY));
                 }
             }
             if (color == Chess.BLACK) {
                 // black kingside
                 if (this.board[Chess.E8] != 0 && this.canCastleBlackKing() && this.board[Chess.H8] != 0 && this.getPieceColorAt(Chess.E8) == Chess.BLACK
                         && this.getPieceColorAt(Chess.H8) == Chess.BLACK && this.getPieceTypeAt(Chess.E8) == Chess.KING && this.getPieceTypeAt(Chess.H8) == Chess.ROOK && this.board[Chess.F8] == 0
-                        && this.board[Chess.G8] == 0) {
-                    moves.add(new Move(Chess.E8, Chess.G8));
+                        && this.board[Chess.G8] == 0 && (!legalOnly || (!this.isAttacked(Chess.F8, Chess.WHITE) && !this.isAttacked(Chess.G8, Chess.WHITE)))) {
+                    moves.add(Move.encode(Chess.E8, Chess.G8, Chess.EMPTY));
                 }
                 // black queenside
                 if (this.board[Chess.E8] != 0 && this.canCastleBlackQueen() && board[Chess.A8] != 0 && this.getPieceColorAt(Chess.E8) == Chess.BLACK && this.getPieceColorAt(Chess.A8) == Chess.BLACK
                         && this.getPieceTypeAt(Chess.E8) == Chess.KING && this.getPieceTypeAt(Chess.A8) == Chess.ROOK && this.board[Chess.D8] == 0 && this.board[Chess.C8] == 0
-                        && this.board[Chess.B8] == 0) {
-                    moves.add(new Move(Chess.E8, Chess.C8));
+                        && this.board[Chess.B8] == 0 && (!legalOnly || (!this.isAttacked(Chess.D8, Chess.WHITE) && !this.isAttacked(Chess.C8, Chess.WHITE)))) {
+                    moves.add(Move.encode(Chess.E8, Chess.C8, Chess.EMPTY));
+                }
+            }
+            // castling checks with the rook, rare enough to be tested move by move
+            if (kind == GEN_QUIET_CHECKS) {
+                int n = castlesStart;
+                for (int i = castlesStart; i < moves.size(); i++) {
+                    if (this.givesCheck(moves.get(i))) {
+                        moves.set(n++, moves.get(i));
+                    }
                 }
+                moves.truncate(n);
+            }
+        }
+    }
+
+    // with GEN_QUIET_CHECKS, the targets of a piece on sq that give check: the direct checks of
+    // its type, and any square off the line to the enemy king if it uncovers a slider
+    private static long checkTargets(long directChecks, int sq, long discoverers, int enemyKingSq) {
+        if ((discoverers & Bitboards.bit(sq)) != 0) {
+            return directChecks | ~Bitboards.line(enemyKingSq, sq);
+        }
+        return directChecks;
+    }
+
+    // pieces of blockerColor that stand alone between the king on kingSq and a slider of
+    // sniperColor: pinned pieces if the king is theirs, discovered check candidates otherwise
+    private long soleBlockers(int kingSq, int sniperColor, int blockerColor) {
+        long[] sliders = this.pieces[sniperColor];
+        long snipers = (Bitboards.rookAttacks(kingSq, 0L) & (sliders[Chess.ROOK] | sliders[Chess.QUEEN]))
+                | (Bitboards.bishopAttacks(kingSq, 0L) & (sliders[Chess.BISHOP] | sliders[Chess.QUEEN]));
+        long result = 0;
+        while (snipers != 0) {
+            long blockers = Bitboards.between(kingSq, Long.numberOfTrailingZeros(snipers)) & this.occupied;
+            if (blockers != 0 && (blockers & (blockers - 1)) == 0) {
+                result |= blockers & this.colors[blockerColor];
+            }
+            snipers &= snipers - 1;
+        }
+        return result;
+    }
+
+    // squares a piece on sq may move to without exposing the king
+    private long pinMask(int sq, long pinned, int kingSq) {
+        if ((pinned & Bitboards.bit(sq)) == 0) {
+            return -1L;
+        }
+        return Bitboards.line(kingSq, sq);
+    }
+
+    // drops the targets that are attacked once the king has left its square,
+    // so that the king can't step back along the ray of a slider
+    private long safeKingTargets(int kingSq, long targets, boolean color) {
+        long occupied = this.occupied ^ Bitboards.bit(kingSq);
+        long safe = 0;
+        while (targets != 0) {
+            int to = Long.numberOfTrailingZeros(targets);
+            if (this.attackersOf(to, !color, occupied) == 0) {
+                safe |= Bitboards.bit(to);
+            }
+            targets &= targets - 1;
+        }
+        return safe;
+    }
+
+    private long pawnPush(long pawns, boolean color) {
+        if (color == Chess.WHITE) {
+            return pawns << 8;
+        } else {
+            return pawns >>> 8;
+        }
+    }
+
+    private void addMoves(MoveList moves, int from, long targets) {
+        while (targets != 0) {
+            int to = Bitboards.SQ120[Long.numberOfTrailingZeros(targets)];
+            moves.add(Move.encode(from, to, Chess.EMPTY));
+            targets &= targets - 1;
+        }
+    }
+
+    // if it's a promotion square, add four moves
+    private void addPawnMoves(MoveList moves, int from, long targets, int promotionRank) {
+        while (targets != 0) {
+            int sq = Long.numberOfTrailingZeros(targets);
+            int to = Bitboards.SQ120[sq];
+            if (sq / 8 == promotionRank) {
+                moves.add(Move.encode(from, to, Chess.QUEEN));
+                moves.add(Move.encode(from, to, Chess.ROOK));
+                moves.add(Move.encode(from, to, Chess.BISHOP));
+                moves.add(Move.encode(from, to, Chess.KNIGHT));
+            } else {
+                moves.add(Move.encode(from, to, Chess.EMPTY));
             }
+            targets &= targets - 1;
+        }
+    }
+
+    // doesn't account for attacks via en-passent
+    private boolean isAttacked(int idx, boolean attacker_color) {
+        return this.attackersOf(Bitboards.SQ64[idx], attacker_color, this.occupied) != 0;
+    }
+
+    // bitboard (see Bitboards) of the pieces of the given color that attack
+    // the square, regardless of pins. Doesn't account for attacks via en-passent
+    public long attackersOf(int internalCoordinate, boolean color) {
+        if (internalCoordinate < 21 || internalCoordinate > 98 || this.board[internalCoordinate] == Chess.FRINGE) {
+            throw new IllegalArgumentException("attackersOf called with fringe square: " + internalCoordinate);
+        }
+        return this.attackersOf(Bitboards.SQ64[internalCoordinate], color, this.occupied);
+    }
+
+    // looks outward from the target square: a piece attacks sq iff the same
+    // piece type standing on sq would attack it. Sliders are stopped by the
+    // given occupancy, so callers can look through pieces
+    private long attackersOf(int sq, boolean color, long occupied) {
+        int intColor = Chess.IWHITE;
+        if (color == Chess.BLACK) {
+            intColor = Chess.IBLACK;
         }
-        return moves;
+        long[] attackers = this.pieces[intColor];
+        long queens = attackers[Chess.QUEEN];
+        return (Bitboards.PAWN_ATTACKS[1 - intColor][sq] & attackers[Chess.PAWN]) | (Bitboards.KNIGHT_ATTACKS[sq] & attackers[Chess.KNIGHT])
+                | (Bitboards.KING_ATTACKS[sq] & attackers[Chess.KING]) | (Bitboards.rookAttacks(sq, occupied) & (attackers[Chess.ROOK] | queens))
+                | (Bitboards.bishopAttacks(sq, occupied) & (attackers[Chess.BISHOP] | queens));
     }
 
-    // doesn't account for attacks via en-passent
-    private boolean isAttacked(int idx, boolean attacker_color) {
-        // first check for potential pawn attackers
-        // attacker color white, pawn must be white.
-        // lower left
-        if (attacker_color == Chess.WHITE && (this.board[idx - 9] != 0xFF && this.board[idx - 9] != 0) && (this.getPieceColorAt(idx - 9) == Chess.WHITE)
-                && (this.getPieceTypeAt(idx - 9) == Chess.PAWN)) {
-            return true;
+    // number of pieces of a color, king included
+    public int getPieceCount(boolean color) {
+        return Long.bitCount(this.colors[color == Chess.BLACK ? Chess.IBLACK : Chess.IWHITE]);
+    }
+
+    public int getPieceCount(boolean color, int pieceType) {
+        return Long.bitCount(this.pieces[color == Chess.BLACK ? Chess.IBLACK : Chess.IWHITE][pieceType]);
+    }
+
+    // bitboard of the pieces of a color and type, see Bitboards for the layout
+    long getPieces(boolean color, int pieceType) {
+        return this.pieces[color == Chess.BLACK ? Chess.IBLACK : Chess.IWHITE][pieceType];
+    }
+
+    long getOccupied() {
+        return this.occupied;
+    }
+
+    // attacks of both colors on every square of the current position. Built in one pass over the
+    // pieces the first time it is asked for after a change, then shared until the next one
+    public AttackMap getAttackMap() {
+        AttackMap map = this.attackMap;
+        if (map == null || map.getZobristHash() != this.zobristHash) {
+            map = AttackMap.of(this);
+            this.attackMap = map;
         }
-        // lower right
-        if (attacker_color == Chess.WHITE && (this.board[idx - 11] != 0xFF && this.board[idx - 11] != 0) && (this.getPieceColorAt(idx - 11) == Chess.WHITE)
-                && (this.getPieceTypeAt(idx - 11) == Chess.PAWN)) {
-            return true;
+        return map;
+    }
+
+    // sum of Chess.PIECE_VALUES of the pieces of a color
+    public int getMaterial(boolean color) {
+        return this.material[color == Chess.BLACK ? Chess.IBLACK : Chess.IWHITE];
+    }
+
+    // white material minus black material
+    public int getMaterialBalance() {
+        return this.material[Chess.IWHITE] - this.material[Chess.IBLACK];
+    }
+
+    public int see(Move m) {
+        return this.see(m.encode());
+    }
+
+    // static exchange evaluation: material won (in centipawns, from the view of the
+    // side moving the piece) if both sides keep capturing on the target square with
+    // their least valuable attacker and stop when it no longer pays. Pins and checks
+    // are ignored. For a quiet move, this is what the moved piece risks on its square
+    public int see(int move) {
+        int from = Move.getSourceSquare(move);
+        int to = Move.getTargetSquare(move);
+        int promotionPiece = Move.getPromotionPiece(move);
+        int piece = this.board[from];
+        if (Move.isNullMove(move) || piece == Chess.EMPTY || piece == Chess.FRINGE || this.board[to] == Chess.FRINGE) {
+            throw new IllegalArgumentException("see: no piece to move in " + Move.decode(move));
         }
-        // check black, upper right
-        if (attacker_color == Chess.BLACK && (this.board[idx + 11] != 0xFF && this.board[idx + 11] != 0) && (this.getPieceColorAt(idx + 11) == Chess.BLACK)
-                && (this.getPieceTypeAt(idx + 11) == Chess.PAWN)) {
-            return true;
+        int sq = Bitboards.SQ64[to];
+        long occupied = this.occupied ^ Bitboards.bit120(from);
+        int[] gain = this.seeGains;
+        gain[0] = Chess.PIECE_VALUES[this.board[to] & 0x07];
+        int epCapture = this.enPassentCaptureSquare(from, to);
+        if (epCapture != 0) {
+            gain[0] = Chess.PIECE_VALUES[Chess.PAWN];
+            occupied ^= Bitboards.bit120(epCapture);
         }
-        // check black, upper left
-        if (attacker_color == Chess.BLACK && (this.board[idx + 9] != 0xFF && this.board[idx + 9] != 0) && (this.getPieceColorAt(idx + 9) == Chess.BLACK)
-                && (this.getPieceTypeAt(idx + 9) == Chess.PAWN)) {
-            return true;
+        int pieceValue = seeValue(piece & 0x07);
+        if (promotionPiece != Chess.EMPTY) {
+            gain[0] += Chess.PIECE_VALUES[promotionPiece] - Chess.PIECE_VALUES[Chess.PAWN];
+            pieceValue = Chess.PIECE_VALUES[promotionPiece];
         }
-        // check all squares (except idx itself)
-        // for potential attackers
-        for (int i = 21; i < 99; i++) {
-            // skip empty squares
-            if (i != idx && this.board[i] != Chess.EMPTY && this.board[i] != Chess.FRINGE) {
-                // can't attack yourself
-                if (this.getPieceColorAt(i) == attacker_color) {
-                    int piece = this.getPieceTypeAt(i);
-                    int distance = idx - i;
-                    if (distance < 0) {
-                        distance = -distance;
-                    }
-                    int pot_attackers = Chess.ATTACK_TABLE[distance];
-                    if ((piece == Chess.KNIGHT && isKthBitSet(pot_attackers, 0)) || (piece == Chess.BISHOP && isKthBitSet(pot_attackers, 1)) || (piece == Chess.ROOK && isKthBitSet(pot_attackers, 2))
-                            || (piece == Chess.QUEEN && isKthBitSet(pot_attackers, 3)) || (piece == Chess.KING && isKthBitSet(pot_attackers, 4))) {
-                        // the target could be a potential attacker
-                        // now just get all pseudo legal moves from i,
-                        // excluding castling. If a move contains
-                        // target idx, then we have an attacker
-                        ArrayList<Move> targets = this.pseudoLegalMoves(i, Chess.ANY_SQUARE, Chess.ANY_PIECE, false, attacker_color);
-                        for (int j = 0; j < targets.size(); j++) {
-                            if (targets.get(j).to == idx) {
-                                return true;
-                            }
-                        }
-                    }
-                }
+        long attackers = (this.attackersOf(sq, Chess.WHITE, occupied) | this.attackersOf(sq, Chess.BLACK, occupied)) & occupied;
+        long queens = this.pieces[Chess.IWHITE][Chess.QUEEN] | this.pieces[Chess.IBLACK][Chess.QUEEN];
+        int side = piece > 0x80 ? Chess.IWHITE : Chess.IBLACK;
+        int d = 0;
+        while (d < gain.length - 1) {
+            long own = attackers & this.colors[side];
+            if (own == 0) {
+                break;
+            }
+            int pieceType = Chess.PAWN;
+            while ((own & this.pieces[side][pieceType]) == 0) {
+                pieceType++;
+            }
+            d++;
+            // the piece standing on the square is taken
+            gain[d] = pieceValue - gain[d - 1];
+            // this capture can't change the result, the side to capture would rather stop
+            if (Math.max(-gain[d - 1], gain[d]) < 0) {
+                d--;
+                break;
             }
+            long b = own & this.pieces[side][pieceType];
+            b &= -b;
+            occupied ^= b;
+            // sliders behind the capturing piece join in, along the line it came from
+            if ((Bitboards.bishopAttacks(sq, 0L) & b) != 0) {
+                attackers |= Bitboards.bishopAttacks(sq, occupied) & (this.pieces[Chess.IWHITE][Chess.BISHOP] | this.pieces[Chess.IBLACK][Chess.BISHOP] | queens);
+            } else if ((Bitboards.rookAttacks(sq, 0L) & b) != 0) {
+                attackers |= Bitboards.rookAttacks(sq, occupied) & (this.pieces[Chess.IWHITE][Chess.ROOK] | this.pieces[Chess.IBLACK][Chess.ROOK] | queens);
+            }
+            attackers &= occupied;
+            pieceValue = seeValue(pieceType);
+            side = 1 - side;
         }
-        return false;
+        while (d > 0) {
+            gain[d - 1] = -Math.max(-gain[d - 1], gain[d]);
+            d--;
+        }
+        return gain[0];
+    }
+
+    private static int seeValue(int pieceType) {
+        return pieceType == Chess.KING ? SEE_KING_VALUE : Chess.PIECE_VALUES[pieceType];
     }
 
-    private boolean isCastlesWking(Move m) {
-        if (this.getPieceTypeAt(m.from) == Chess.KING && this.getPieceColorAt(m.from) == Chess.WHITE && m.from == Chess.E1 && m.to == Chess.G1) {
+    private boolean isCastlesWking(int from, int to) {
+        if (this.getPieceTypeAt(from) == Chess.KING && this.getPieceColorAt(from) == Chess.WHITE && from == Chess.E1 && to == Chess.G1) {
             return true;
         } else {
             return false;
         }
     }
 
-    private boolean isCastlesWQueen(Move m) {
-        if (this.getPieceTypeAt(m.from) == Chess.KING && this.getPieceColorAt(m.from) == Chess.WHITE && m.from == Chess.E1 && m.to == Chess.C1) {
+    private boolean isCastlesWQueen(int from, int to) {
+        if (this.getPieceTypeAt(from) == Chess.KING && this.getPieceColorAt(from) == Chess.WHITE && from == Chess.E1 && to == Chess.C1) {
             return true;
         } else {
             return false;
         }
     }
 
-    private boolean isCastlesBking(Move m) {
-        if (this.getPieceTypeAt(m.from) == Chess.KING && this.getPieceColorAt(m.from) == Chess.BLACK && m.from == Chess.E8 && m.to == Chess.G8) {
+    private boolean isCastlesBking(int from, int to) {
+        if (this.getPieceTypeAt(from) == Chess.KING && this.getPieceColorAt(from) == Chess.BLACK && from == Chess.E8 && to == Chess.G8) {
             return true;
         } else {
             return false;
         }
     }
 
-    private boolean isCastlesBqueen(Move m) {
-        if (this.getPieceTypeAt(m.from) == Chess.KING && this.getPieceColorAt(m.from) == Chess.BLACK && m.from == Chess.E8 && m.to == Chess.C8) {
+    private boolean isCastlesBqueen(int from, int to) {
+        if (this.getPieceTypeAt(from) == Chess.KING && this.getPieceColorAt(from) == Chess.BLACK && from == Chess.E8 && to == Chess.C8) {
             return true;
         } else {
             return false;
@@ -1170,135 +1565,167 @@ public class Board {
     }
 
     public boolean isPseudoALegal(Move m) {
+        return this.isPseudoALegal(m.encode());
+    }
+
+    public boolean isPseudoALegal(int move) {
+        int from = Move.getSourceSquare(move);
+        int to = Move.getTargetSquare(move);
         // a pseudo legal move is a legal move if
         // a) doesn't put king in check
         // b) if castle, must ensure that 1) king is not currently in check
         // 2) castle over squares are not in check
         // 3) doesn't castle into check
         // first find color of mover
-        boolean color = this.getPieceColorAt(m.from);
+        boolean color = this.getPieceColorAt(from);
         // find king with that color
-        for (int i = 21; i < 99; i++) {
-            if (!(this.board[i] == Chess.EMPTY) && !(this.board[i] == Chess.FRINGE)) {
-                if (this.getPieceTypeAt(i) == Chess.KING && this.getPieceColorAt(i) == color) {
-                    // if the move is not by the king
-                    if (i != m.from) {
-                        // apply the move, check if king is attacked, and decide
-                        // boolean legal = false;
-                        // Board b_temp = this.makeCopy();
-                        this.apply(m); // note: if we do not copy here (performance) then legals()
-                                       // destorys our undo!
-                        boolean legal = !this.isAttacked(i, !color);
-                        this.undo();
-                        return legal;
-                    } else {
-                        // means we move the king
-                        // first check castle cases
-                        if (this.isCastlesWking(m)) {
-                            if (!this.isAttacked(Chess.E1, Chess.BLACK) && !this.isAttacked(Chess.F1, Chess.BLACK) && !this.isAttacked(Chess.G1, Chess.BLACK)) {
-                                this.apply(m);
-                                boolean legal = !this.isAttacked(Chess.G1, Chess.BLACK);
-                                this.undo();
-                                return legal;
-                            } else {
-                                return false;
-                            }
-                        }
-                        if (this.isCastlesBking(m)) {
-                            if (!this.isAttacked(Chess.E8, Chess.WHITE) && !this.isAttacked(Chess.F8, Chess.WHITE) && !this.isAttacked(Chess.G8, Chess.WHITE)) {
-                                this.apply(m);
-                                boolean legal = !this.isAttacked(Chess.G8, Chess.WHITE);
-                                this.undo();
-                                return legal;
-                            } else {
-                                return false;
-                            }
-                        }
-                        if (this.isCastlesWQueen(m)) {
-                            if (!this.isAttacked(Chess.E1, Chess.BLACK) && !this.isAttacked(Chess.D1, Chess.BLACK) && !this.isAttacked(Chess.C1, Chess.BLACK)) {
-                                this.apply(m);
-                                boolean legal = !this.isAttacked(Chess.C1, Chess.BLACK);
-                                this.undo();
-                                return legal;
-                            } else {
-                                return false;
-                            }
-                        }
-                        if (this.isCastlesBqueen(m)) {
-                            if (!this.isAttacked(Chess.E8, Chess.WHITE) && !this.isAttacked(Chess.D8, Chess.WHITE) && !this.isAttacked(Chess.C8, Chess.WHITE)) {
-                                ArrayList<Move> targets = this.pseudoLegalMoves(Chess.F7, Chess.ANY_SQUARE, Chess.ANY_PIECE, false, Chess.WHITE);
-                                this.apply(m);
-                                boolean legal = !this.isAttacked(Chess.C8, Chess.WHITE);
-                                this.undo();
-                                return legal;
-                            } else {
-                                return false;
-                            }
-                        }
-                        // if none of the castles cases triggered, we have a standard king move
-                        // just check if king isn't attacked after applying the move
-                        // boolean legal = false;
-                        this.apply(m);
-                        // Board b_temp = this.makeCopy();
-                        boolean legal = !this.isAttacked(m.to, !color);
-                        this.undo();
-                        return legal;
-                    }
+        int kingPos = this.kingSquare(color);
+        if (kingPos == 0) {
+            return false;
+        }
+        // if the move is not by the king
+        if (kingPos != from) {
+            // apply the move, check if king is attacked, and decide
+            // boolean legal = false;
+            // Board b_temp = this.makeCopy();
+            this.apply(move);
+            boolean legal = !this.isAttacked(kingPos, !color);
+            this.undo();
+            return legal;
+        } else {
+            // means we move the king
+            // first check castle cases
+            if (this.isCastlesWking(from, to)) {
+                if (!this.isAttacked(Chess.E1, Chess.BLACK) && !this.isAttacked(Chess.F1, Chess.BLACK) && !this.isAttacked(Chess.G1, Chess.BLACK)) {
+                    this.apply(move);
+                    boolean legal = !this.isAttacked(Chess.G1, Chess.BLACK);
+                    this.undo();
+                    return legal;
+                } else {
+                    return false;
+                }
+            }
+            if (this.isCastlesBking(from, to)) {
+                if (!this.isAttacked(Chess.E8, Chess.WHITE) && !this.isAttacked(Chess.F8, Chess.WHITE) && !this.isAttacked(Chess.G8, Chess.WHITE)) {
+                    this.apply(move);
+                    boolean legal = !this.isAttacked(Chess.G8, Chess.WHITE);
+                    this.undo();
+                    return legal;
+                } else {
+                    return false;
+                }
+            }
+            if (this.isCastlesWQueen(from, to)) {
+                if (!this.isAttacked(Chess.E1, Chess.BLACK) && !this.isAttacked(Chess.D1, Chess.BLACK) && !this.isAttacked(Chess.C1, Chess.BLACK)) {
+                    this.apply(move);
+                    boolean legal = !this.isAttacked(Chess.C1, Chess.BLACK);
+                    this.undo();
+                    return legal;
+                } else {
+                    return false;
                 }
             }
+            if (this.isCastlesBqueen(from, to)) {
+                if (!this.isAttacked(Chess.E8, Chess.WHITE) && !this.isAttacked(Chess.D8, Chess.WHITE) && !this.isAttacked(Chess.C8, Chess.WHITE)) {
+                    this.apply(move);
+                    boolean legal = !this.isAttacked(Chess.C8, Chess.WHITE);
+                    this.undo();
+                    return legal;
+                } else {
+                    return false;
+                }
+            }
+            // if none of the castles cases triggered, we have a standard king move
+            // just check if king isn't attacked after applying the move
+            // boolean legal = false;
+            this.apply(move);
+            // Board b_temp = this.makeCopy();
+            boolean legal = !this.isAttacked(to, !color);
+            this.undo();
+            return legal;
         }
-        return false;
     }
 
     public boolean isLegal(Move m) {
-        ArrayList<Move> pseudoLegals = this.pseudoLegalMoves(m.from, m.to, Chess.ANY_PIECE, true, this.turn);
+        return this.isLegal(m.encode());
+    }
 
-        for (Move mi : pseudoLegals) {
-            if (mi.from == m.from && mi.to == m.to && mi.promotionPiece == m.promotionPiece) {
-                if (isPseudoALegal(m)) {
-                    return true;
-                }
-            }
+    public boolean isLegal(int move) {
+        if (Move.isNullMove(move)) {
+            return false;
         }
-        return false;
+        this.generateMoves(this.legalityMoves, Move.getSourceSquare(move), Move.getTargetSquare(move), Chess.ANY_PIECE, true, this.turn, true);
+        return this.legalityMoves.contains(move);
     }
 
     public boolean isLegalAndPromotes(Move m) {
-        ArrayList<Move> pseudoLegals = this.pseudoLegalMoves(m.from, m.to, Chess.ANY_PIECE, true, this.turn);
-        for (Move mi : pseudoLegals) {
-            if (mi.from == m.from && mi.to == m.to && mi.promotionPiece != 0) {
-                if (isPseudoALegal(m)) {
-                    return true;
-                }
+        if (m.isNullMove) {
+            return false;
+        }
+        this.generateMoves(this.legalityMoves, m.from, m.to, Chess.ANY_PIECE, true, this.turn, true);
+        for (int i = 0; i < this.legalityMoves.size(); i++) {
+            if (Move.getPromotionPiece(this.legalityMoves.get(i)) != Chess.EMPTY) {
+                return true;
             }
         }
         return false;
     }
 
     public ArrayList<Move> legalMoves() {
-
-        ArrayList<Move> pseudoLegals = this.pseudoLegalMoves();
-        ArrayList<Move> legals = new ArrayList<Move>();
-        for (Move mi : pseudoLegals) {
-            try {
-                if (this.isPseudoALegal(mi)) {
-                    legals.add(mi);
-                }
-            } catch (IllegalArgumentException e) {
-                int cnt_i = pseudoLegals.size();
-                this.initPieceList();
-                int cnt_i1 = this.pseudoLegalMoves().size();
-                throw new IllegalArgumentException("err: before init pcl: " + cnt_i + ", after: " + cnt_i1);
-            }
-        }
-        return legals;
+        MoveList moves = new MoveList();
+        this.legalMoves(moves);
+        return moves.toMoves();
     }
 
     public ArrayList<Move> legaMovesTo(int internalToSquare, int pieceType) {
+        MoveList moves = new MoveList();
+        this.legaMovesTo(moves, internalToSquare, pieceType);
+        return moves.toMoves();
+    }
+
+    public ArrayList<Move> legalMovesFrom(int internalFromSquare) {
+        MoveList moves = new MoveList();
+        this.legalMovesFrom(moves, internalFromSquare);
+        return moves.toMoves();
+    }
+
+    // clears moves and fills it with the legal moves
+    public void legalMoves(MoveList moves) {
+        this.generateMoves(moves, Chess.ANY_SQUARE, Chess.ANY_SQUARE, Chess.ANY_PIECE, true, this.turn, true);
+    }
+
+    public void legaMovesTo(MoveList moves, int internalToSquare, int pieceType) {
+        this.generateMoves(moves, Chess.ANY_SQUARE, internalToSquare, pieceType, true, this.turn, true);
+    }
+
+    public void legalMovesFrom(MoveList moves, int internalFromSquare) {
+        this.generateMoves(moves, internalFromSquare, Chess.ANY_SQUARE, Chess.ANY_PIECE, true, this.turn, true);
+    }
+
+    // the legal captures, capturing promotions and e.p. included
+    public void legalCaptures(MoveList moves) {
+        this.generateMoves(moves, Chess.ANY_SQUARE, Chess.ANY_SQUARE, Chess.ANY_PIECE, true, this.turn, true, GEN_CAPTURES);
+    }
+
+    // the legal pawn pushes to the last rank
+    public void legalPromotions(MoveList moves) {
+        this.generateMoves(moves, Chess.ANY_SQUARE, Chess.ANY_SQUARE, Chess.ANY_PIECE, true, this.turn, true, GEN_PROMOTIONS);
+    }
+
+    // the legal moves that are neither captures nor promotions, castling included
+    public void legalQuiets(MoveList moves) {
+        this.generateMoves(moves, Chess.ANY_SQUARE, Chess.ANY_SQUARE, Chess.ANY_PIECE, true, this.turn, true, GEN_QUIETS);
+    }
 
-        ArrayList<Move> pseudoLegals = this.pseudoLegalMoves(Chess.ANY_SQUARE, internalToSquare, pieceType, true, this.turn);
+    // the legal quiet moves that give check, generated from the squares attacking the enemy
+    // king and the pieces that uncover a slider on it
+    public void legalQuietChecks(MoveList moves) {
+        this.generateMoves(moves, Chess.ANY_SQUARE, Chess.ANY_SQUARE, Chess.ANY_PIECE, true, this.turn, true, GEN_QUIET_CHECKS);
+    }
+
+    public ArrayList<Move> legalsFromPseudos(ArrayList<Move> pseudos) {
         ArrayList<Move> legals = new ArrayList<Move>();
-        for (Move mi : pseudoLegals) {
+        for (Move mi : pseudos) {
             if (this.isPseudoALegal(mi)) {
                 legals.add(mi);
             }
@@ -1306,176 +1733,242 @@ public class Board {
         return legals;
     }
 
-    public ArrayList<Move> legalMovesFrom(int internalFromSquare) {
-        ArrayList<Move> pseudoLegals = this.pseudoLegalMoves(internalFromSquare, Chess.ANY_SQUARE, Chess.ANY_PIECE, true, this.turn);
-        ArrayList<Move> legals = new ArrayList<Move>();
-        for (Move mi : pseudoLegals) {
-            if (this.isPseudoALegal(mi)) {
-                legals.add(mi);
+    // removes the pseudo legal moves that leave the king in check
+    private void retainLegal(MoveList moves) {
+        int size = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            if (this.isPseudoALegal(move)) {
+                moves.set(size++, move);
             }
         }
-        return legals;
+        moves.truncate(size);
     }
 
-    public ArrayList<Move> legalsFromPseudos(ArrayList<Move> pseudos) {
-        ArrayList<Move> legals = new ArrayList<Move>();
-        for (Move mi : pseudos) {
-            if (this.isPseudoALegal(mi)) {
-                legals.add(mi);
+    private void retainChecks(MoveList moves) {
+        int size = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            if (this.givesCheck(move)) {
+                moves.set(size++, move);
             }
         }
-        return legals;
+        moves.truncate(size);
     }
 
     public boolean isCheckmate() {
-        // search for king of player with current turn
-        // check whether king is attacked
-        // check if player has no moves
-        for (int i = 21; i < 99; i++) {
-            if (this.board[i] != Chess.EMPTY && this.board[i] != Chess.FRINGE) {
-                if (this.getPieceTypeAt(i) == Chess.KING && this.getPieceColorAt(i) == this.turn) {
-                    if (this.isAttacked(i, !this.turn)) {
-                        ArrayList<Move> legals = this.legalMoves();
-                        return legals.size() == 0;
-                    } else {
-                        return false;
-                    }
-                }
-            }
+        // check whether king of player with current turn is attacked
+        // and if player has no moves
+        int kingPos = this.kingSquare(this.turn);
+        if (kingPos == 0 || !this.isAttacked(kingPos, !this.turn)) {
+            return false;
         }
-        return false;
+        return !this.hasAnyLegalMove();
     }
 
     public boolean isStalemate() {
-        // search for king of player with current turn
-        // check whether king is not attacked
-        // check if player has no moves
-        for (int i = 21; i < 99; i++) {
-            if (this.board[i] != Chess.EMPTY && this.board[i] != Chess.FRINGE) {
-                if (this.getPieceTypeAt(i) == Chess.KING && this.getPieceColorAt(i) == this.turn) {
-                    if (!this.isAttacked(i, !this.turn)) {
-                        ArrayList<Move> legals = this.legalMoves();
-                        return legals.size() == 0;
-                    } else {
-                        return false;
-                    }
-                }
-            }
+        // check whether king of player with current turn is not attacked
+        // and if player has no moves
+        int kingPos = this.kingSquare(this.turn);
+        if (kingPos == 0 || this.isAttacked(kingPos, !this.turn)) {
+            return false;
         }
-        return false;
+        return !this.hasAnyLegalMove();
     }
 
     public boolean isCheck() {
-        for (int i = 21; i < 99; i++) {
-            if (this.board[i] != Chess.EMPTY && this.board[i] != Chess.FRINGE) {
-                if (this.getPieceTypeAt(i) == Chess.KING && this.getPieceColorAt(i) == this.turn) {
-                    return this.isAttacked(i, !this.turn);
+        int kingPos = this.kingSquare(this.turn);
+        return kingPos != 0 && this.isAttacked(kingPos, !this.turn);
+    }
+
+    public boolean givesCheck(Move m) {
+        return this.givesCheck(m.encode());
+    }
+
+    // true if the legal move checks the enemy king. Worked out from the attacks of the moved
+    // (or promoted) piece on its new square and the slider lines opened toward the king, the
+    // board isn't changed
+    public boolean givesCheck(int move) {
+        if (Move.isNullMove(move)) {
+            return false;
+        }
+        int intColor = this.turn ? Chess.IBLACK : Chess.IWHITE;
+        long king = this.pieces[1 - intColor][Chess.KING];
+        if (king == 0) {
+            return false;
+        }
+        int kingSq = Long.numberOfTrailingZeros(king);
+        int from = Move.getSourceSquare(move);
+        int to = Move.getTargetSquare(move);
+        int pieceType = this.board[from] & 0x07;
+        long fromBit = Bitboards.bit120(from);
+        long toBit = Bitboards.bit120(to);
+        if (pieceType == Chess.KING && Math.abs(to - from) == 2) {
+            // castling can only check with the rook, next to the king's new square
+            int rookFrom = to > from ? from + 3 : from - 4;
+            int rookTo = (from + to) / 2;
+            long occupied = this.occupied ^ fromBit ^ toBit ^ Bitboards.bit120(rookFrom) ^ Bitboards.bit120(rookTo);
+            return (Bitboards.rookAttacks(Bitboards.SQ64[rookTo], occupied) & king) != 0;
+        }
+        long occupied = (this.occupied ^ fromBit) | toBit;
+        long vacated = fromBit;
+        int epCapture = this.enPassentCaptureSquare(from, to);
+        if (epCapture != 0) {
+            occupied ^= Bitboards.bit120(epCapture);
+            vacated |= Bitboards.bit120(epCapture);
+        }
+        int promotionPiece = Move.getPromotionPiece(move);
+        if (promotionPiece != Chess.EMPTY) {
+            pieceType = promotionPiece;
+        }
+        int toSq = Bitboards.SQ64[to];
+        long attacks;
+        switch (pieceType) {
+        case Chess.PAWN:
+            attacks = Bitboards.PAWN_ATTACKS[intColor][toSq];
+            break;
+        case Chess.KNIGHT:
+            attacks = Bitboards.KNIGHT_ATTACKS[toSq];
+            break;
+        case Chess.BISHOP:
+            attacks = Bitboards.bishopAttacks(toSq, occupied);
+            break;
+        case Chess.ROOK:
+            attacks = Bitboards.rookAttacks(toSq, occupied);
+            break;
+        case Chess.QUEEN:
+            attacks = Bitboards.queenAttacks(toSq, occupied);
+            break;
+        default:
+            attacks = 0;
+        }
+        if ((attacks & king) != 0) {
+            return true;
+        }
+        // discovered check, only if a vacated square is on a line through the king
+        if ((Bitboards.queenAttacks(kingSq, 0L) & vacated) == 0) {
+            return false;
+        }
+        long[] own = this.pieces[intColor];
+        long rooks = (own[Chess.ROOK] | own[Chess.QUEEN]) & ~fromBit;
+        long bishops = (own[Chess.BISHOP] | own[Chess.QUEEN]) & ~fromBit;
+        return ((Bitboards.rookAttacks(kingSq, occupied) & rooks) | (Bitboards.bishopAttacks(kingSq, occupied) & bishops)) != 0;
+    }
+
+    // same as !legalMoves().isEmpty(), but stops at the first legal move:
+    // king moves are tried first, then the other pieces type by type
+    public boolean hasAnyLegalMove() {
+        int intColor = 0;
+        if (this.turn) {
+            intColor = 1;
+        }
+        long king = this.pieces[intColor][Chess.KING];
+        if (Long.bitCount(king) != 1) {
+            this.legalMoves(this.legalityMoves);
+            return !this.legalityMoves.isEmpty();
+        }
+        int kingSq = Long.numberOfTrailingZeros(king);
+        // castling is never needed here: if it is legal,
+        // so is the king step towards the rook
+        if (this.safeKingTargets(kingSq, Bitboards.KING_ATTACKS[kingSq] & ~this.colors[intColor], this.turn) != 0) {
+            return true;
+        }
+        for (int pieceType = Chess.PAWN; pieceType < Chess.KING; pieceType++) {
+            if (this.pieces[intColor][pieceType] != 0) {
+                this.generateMoves(this.legalityMoves, Chess.ANY_SQUARE, Chess.ANY_SQUARE, pieceType, false, this.turn, true);
+                if (!this.legalityMoves.isEmpty()) {
+                    return true;
                 }
             }
         }
         return false;
     }
 
+    // square of the king of the given color, 0 if there is none.
+    // The king bitboard is kept up to date by apply and undo
+    private int kingSquare(boolean color) {
+        int intColor = 0;
+        if (color) {
+            intColor = 1;
+        }
+        long king = this.pieces[intColor][Chess.KING];
+        if (king == 0) {
+            return 0;
+        }
+        return Bitboards.SQ120[Long.numberOfTrailingZeros(king)];
+    }
+
     public String san(Move m) {
-        // first check for null move
         StringBuilder san = new StringBuilder();
-        if (m.isNullMove) {
-            return "--";
-        }
-        // first test for checkmate and check (to be appended later)
-        // create temp board, since appyling move and
-        // testing for checkmate (which again needs
-        // application of a move) makes it impossible
-        // to undo (undo can only be done once, not twice in a row)
-        Board b_temp = this.makeCopy();
-        b_temp.apply(m);
-        boolean is_check = b_temp.isCheck();
-        boolean is_checkmate = b_temp.isCheckmate();
-
-        if (this.isCastlesWking(m) || this.isCastlesBking(m)) {
+        this.san(m.encode(), san);
+        return san.toString();
+    }
+
+    // appends the standard algebraic notation of a legal move
+    public void san(int move, StringBuilder san) {
+        // first check for null move
+        if (Move.isNullMove(move)) {
+            san.append("--");
+            return;
+        }
+        int from = Move.getSourceSquare(move);
+        int to = Move.getTargetSquare(move);
+        int promotionPiece = Move.getPromotionPiece(move);
+        if (this.isCastlesWking(from, to) || this.isCastlesBking(from, to)) {
             san.append("O-O");
-            if (is_checkmate) {
-                san.append("#");
-            }
-            if (is_check) {
-                san.append("+");
-            }
-            return san.toString();
-        } else if (this.isCastlesWQueen(m) || this.isCastlesBqueen(m)) {
+        } else if (this.isCastlesWQueen(from, to) || this.isCastlesBqueen(from, to)) {
             san.append("O-O-O");
-            if (is_checkmate) {
-                san.append("#");
-            } else if (is_check) {
-                san.append("+");
-            }
-            return san.toString();
         } else {
-            int pieceType = this.getPieceTypeAt(m.from);
-            int piece = this.getPieceAt(m.from);
+            int pieceType = this.getPieceTypeAt(from);
             if (pieceType == Chess.KNIGHT) {
-                san.append("N");
+                san.append('N');
             }
             if (pieceType == Chess.BISHOP) {
-                san.append("B");
+                san.append('B');
             }
             if (pieceType == Chess.ROOK) {
-                san.append("R");
+                san.append('R');
             }
             if (pieceType == Chess.QUEEN) {
-                san.append("Q");
+                san.append('Q');
             }
             if (pieceType == Chess.KING) {
-                san.append("K");
+                san.append('K');
             }
-            // QVector<Move> col_disambig;
-            // QVector<Move> row_disambig;
-            int thisRow = (m.from / 10) - 1;
-            int thisCol = m.from % 10;
-
-            ArrayList<Move> colDisAmbig = new ArrayList<>();
-            ArrayList<Move> rowDisAmbig = new ArrayList<>();
-            // find amibguous moves (except for pawns)
+            char thisRow = (char) ((from / 10) + 47);
+            char thisCol = (char) ((from % 10) + 96);
+            // find amibguous moves (except for pawns): the other pieces
+            // of the same type attacking the target that may legally go there
             if (pieceType != Chess.PAWN) {
-                // if piece list contains only one piece, skip move generation
-                // for testing disambiguity
-                int color = 0;
-                if (this.turn) {
-                    color = 1;
-                }
-                if (this.pieceList[color][pieceType][1] != Chess.EMPTY) {
-                    // otherwise we are finished as there is only one piece
-                    ArrayList<Move> pseudos = this.pseudoLegalMoves(Chess.ANY_SQUARE, m.to, pieceType, false, this.turn);
-                    if (pseudos.size() != 1) { // otherwise we are finished, as there is only one
-                                               // pseudo-legal move
-                        ArrayList<Move> legals = this.legalsFromPseudos(pseudos);
-                        if (legals.size() != 1) { // really need to resolve disambiguity
-                            for (Move mi : legals) {
-                                if (mi.from != m.from) { // skip the actual move to render
-                                    if (mi.from % 10 != thisCol) {
-                                        colDisAmbig.add(mi);
-                                    } else {
-                                        rowDisAmbig.add(mi);
-                                    }
-                                }
-                            }
+                boolean color = this.getPieceColorAt(from);
+                int intColor = 0;
+                if (color) {
+                    intColor = 1;
+                }
+                long others = this.attackersOf(Bitboards.SQ64[to], color, this.occupied) & this.pieces[intColor][pieceType] & ~Bitboards.bit120(from);
+                boolean sameCol = false;
+                boolean otherCol = false;
+                while (others != 0) {
+                    int other = Bitboards.SQ120[Long.numberOfTrailingZeros(others)];
+                    if (this.isPseudoALegal(Move.encode(other, to, Chess.EMPTY))) {
+                        if (other % 10 == from % 10) {
+                            sameCol = true;
+                        } else {
+                            otherCol = true;
                         }
                     }
-                }
-                int cntColDisambig = colDisAmbig.size();
-                int cntRowDisambig = rowDisAmbig.size();
-                // if there is an ambiguity
-                if (cntColDisambig != 0 || cntRowDisambig != 0) {
-                    // preferred way: resolve via column
-                    if (cntColDisambig > 0 && cntRowDisambig == 0) {
-                        san.append((char) (thisCol + 96));
-                        // if not try to resolve via row
-                    } else if (cntRowDisambig > 0 && cntColDisambig == 0) {
-                        san.append((char) (thisRow + 48));
+                    others &= others - 1;
+                }
+                // preferred way: resolve via column, if not try to resolve via row
+                // and if that also fails (think three queens) via full coordinate
+                if (otherCol || sameCol) {
+                    if (!sameCol) {
+                        san.append(thisCol);
+                    } else if (!otherCol) {
+                        san.append(thisRow);
                     } else {
-                        // if that also fails (think three queens)
-                        // resolve via full coordinate
-                        san.append((char) (thisCol + 96));
-                        san.append((char) (thisRow + 48));
+                        san.append(thisCol);
+                        san.append(thisRow);
                     }
                 }
             }
@@ -1483,32 +1976,75 @@ public class Board {
             // is not empty
             // in case of an en-passent capture, the destiation field
             // is empty. But then the destination field is the e.p. square
-            if (this.board[m.to] != Chess.EMPTY || m.to == this.enPassentTarget) {
+            if (this.board[to] != Chess.EMPTY || (pieceType == Chess.PAWN && to == this.enPassentTarget)) {
                 if (pieceType == Chess.PAWN) {
-                    san.append((char) (thisCol + 96));
+                    san.append(thisCol);
                 }
-                san.append("x");
+                san.append('x');
             }
-            san.append(this.internalIdxToString(m.to));
-            if (m.promotionPiece == Chess.KNIGHT) {
+            san.append((char) ((to % 10) + 96));
+            san.append((char) ((to / 10) + 47));
+            if (promotionPiece == Chess.KNIGHT) {
                 san.append("=N");
             }
-            if (m.promotionPiece == Chess.BISHOP) {
+            if (promotionPiece == Chess.BISHOP) {
                 san.append("=B");
             }
-            if (m.promotionPiece == Chess.ROOK) {
+            if (promotionPiece == Chess.ROOK) {
                 san.append("=R");
             }
-            if (m.promotionPiece == Chess.QUEEN) {
+            if (promotionPiece == Chess.QUEEN) {
                 san.append("=Q");
             }
         }
-        if (is_checkmate) {
-            san.append("#");
-        } else if (is_check) {
-            san.append("+");
+        // only a check can be a checkmate, which needs the position after the move
+        if (this.givesCheck(move)) {
+            this.apply(move);
+            if (this.hasAnyLegalMove()) {
+                san.append('+');
+            } else {
+                san.append('#');
+            }
+            this.undo();
         }
-        return san.toString();
+    }
+
+    // appends a line of uci moves played from this position, e.g. an engine pv,
+    // with move numbers: "12. ... Nf6 13. Bg5". The moves are made and taken back
+    // on this board, and the line ends at the first move that is not legal.
+    // Returns the number of moves rendered
+    public int appendSanLine(StringBuilder san, List<String> uciMoves) {
+        boolean whiteMoves = this.turn == Chess.WHITE;
+        int moveNo = this.fullmoveNumber;
+        if (!whiteMoves) {
+            san.append(moveNo).append(". ...");
+        }
+        int count = 0;
+        for (int i = 0; i < uciMoves.size(); i++) {
+            int move;
+            try {
+                move = Move.encodeUci(uciMoves.get(i));
+            } catch (IllegalArgumentException e) {
+                break;
+            }
+            if (!this.isLegal(move)) {
+                break;
+            }
+            if (whiteMoves) {
+                san.append(' ').append(moveNo).append(". ");
+            } else {
+                san.append(' ');
+                moveNo++;
+            }
+            this.san(move, san);
+            this.apply(move);
+            whiteMoves = !whiteMoves;
+            count++;
+        }
+        for (int i = 0; i < count; i++) {
+            this.undo();
+        }
+        return count;
     }
 
     public boolean isPromoting(Move m) {
@@ -1537,7 +2073,7 @@ public class Board {
         if (this.fullmoveNumber != 1) {
             return false;
         }
-        if (this.undoAvailable) {
+        if (this.undoCount > 0) {
             return false;
         }
         return true;
@@ -1560,22 +2096,34 @@ public class Board {
     }
 
     public boolean isUndoAvailable() {
-        return this.undoAvailable;
+        return this.undoCount > 0;
     }
 
     public void setCastleWKing(boolean canDo) {
+        if (this.castleWkingOk != canDo) {
+            this.zobristHash ^= Chess.RANDOM_ARRAY[Chess.RANDOM_CASTLE + 0];
+        }
         this.castleWkingOk = canDo;
     }
 
     public void setCastleBKing(boolean canDo) {
+        if (this.castleBkingOk != canDo) {
+            this.zobristHash ^= Chess.RANDOM_ARRAY[Chess.RANDOM_CASTLE + 2];
+        }
         this.castleBkingOk = canDo;
     }
 
     public void setCastleWQueen(boolean canDo) {
+        if (this.castleWqueenOk != canDo) {
+            this.zobristHash ^= Chess.RANDOM_ARRAY[Chess.RANDOM_CASTLE + 1];
+        }
         this.castleWqueenOk = canDo;
     }
 
     public void setCastleBQueen(boolean canDo) {
+        if (this.castleBqueenOk != canDo) {
+            this.zobristHash ^= Chess.RANDOM_ARRAY[Chess.RANDOM_CASTLE + 3];
+        }
         this.castleBqueenOk = canDo;
     }
 
@@ -1588,14 +2136,22 @@ public class Board {
                 (piece >= 0x81 && piece <= 0x87) || (piece == 0x00))) // black piece or empty
         {
             int idx = this.xyToInternal(x, y);
-            this.board[idx] = piece;
+            this.setPiece(idx, piece);
         } else {
             throw new IllegalArgumentException("called setPieceAt with invalid paramters, (x,y,piece): " + x + "," + y + "," + piece);
         }
     }
 
     public void setPiece(int internalPos, int piece) {
-        this.board[internalPos] = piece;
+        // the e.p. key depends on the pawns next to the target, so it is
+        // taken out before the change and put back after
+        this.zobristHash ^= this.zobristEpKey();
+        this.removePiece(internalPos);
+        if (piece != Chess.EMPTY) {
+            this.putPiece(internalPos, piece);
+        }
+        this.zobristHash ^= this.zobristEpKey();
+        this.publishSnapshot();
     }
 
     public int getPieceAt(int x, int y) {
@@ -1676,18 +2232,11 @@ public class Board {
     }
 
     public int getKingPos(boolean player) {
-        for (int i = 21; i < 99; i++) {
-            if (player == Chess.WHITE) {
-                if (this.board[i] == Chess.WHITE_KING) {
-                    return i;
-                }
-            } else {
-                if (this.board[i] == Chess.BLACK_KING) {
-                    return i;
-                }
-            }
+        int kingPos = this.kingSquare(player);
+        if (kingPos == 0) {
+            throw new IllegalArgumentException("there is no king on the board for supplied player!");
         }
-        throw new IllegalArgumentException("there is no king on the board for supplied player!");
+        return kingPos;
     }
 
     public boolean isConsistent() {
@@ -1853,10 +2402,100 @@ public class Board {
         return this.enPassentTarget;
     }
 
-    boolean canClaimFiftyMoves() {
+    public boolean canClaimFiftyMoves() {
         return this.halfmoveClock >= 100;
     }
 
+    // how many times the current position occurred before, as far as the undo stack goes back.
+    // Only the plies since the last capture or pawn move are scanned, and a null move ends the scan
+    public int getRepetitionCount() {
+        int count = 0;
+        int stop = Math.max(0, this.undoCount - this.halfmoveClock);
+        // undoHashes[i] is the hash before move i, every second one has the same side to move
+        for (int i = this.undoCount - 2; i >= stop; i -= 2) {
+            if (Move.isNullMove(this.undoMoves[i + 1]) || Move.isNullMove(this.undoMoves[i])) {
+                break;
+            }
+            if (this.undoHashes[i] == this.zobristHash) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // true if the current position already occurred, enough for a search to score it as a draw
+    public boolean isRepetition() {
+        int stop = Math.max(0, this.undoCount - this.halfmoveClock);
+        for (int i = this.undoCount - 2; i >= stop; i -= 2) {
+            if (Move.isNullMove(this.undoMoves[i + 1]) || Move.isNullMove(this.undoMoves[i])) {
+                return false;
+            }
+            if (this.undoHashes[i] == this.zobristHash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean canClaimThreefoldRepetition() {
+        return this.getRepetitionCount() >= 2;
+    }
+
+    public boolean canClaimDraw() {
+        return this.canClaimFiftyMoves() || this.canClaimThreefoldRepetition();
+    }
+
+    public long getZobristHash() {
+        return this.zobristHash;
+    }
+
+    // Polyglot layout: 64 * kind of piece + square
+    private long zobristPieceKey(int idx, int piece) {
+        return Chess.RANDOM_ARRAY[64 * this.zobristPieceType(piece) + Bitboards.SQ64[idx]];
+    }
+
+    // as in Polyglot, the e.p. file is only hashed if a pawn of
+    // the side to move can actually capture en passent
+    private long zobristEpKey() {
+        if (this.enPassentTarget == 0) {
+            return 0;
+        }
+        int intColor = this.turn ? Chess.IBLACK : Chess.IWHITE;
+        int sq = Bitboards.SQ64[this.enPassentTarget];
+        if ((Bitboards.PAWN_ATTACKS[1 - intColor][sq] & this.pieces[intColor][Chess.PAWN]) == 0) {
+            return 0;
+        }
+        return Chess.RANDOM_ARRAY[Chess.RANDOM_EN_PASSENT + (this.enPassentTarget % 10) - 1];
+    }
+
+    // full computation, only needed when a position is set up from scratch
+    private long computeZobristHash() {
+        long hash = 0;
+        for (int i = 21; i < 99; i++) {
+            int piece = this.board[i];
+            if (piece != Chess.EMPTY && piece != Chess.FRINGE) {
+                hash ^= this.zobristPieceKey(i, piece);
+            }
+        }
+        if (this.castleWkingOk) {
+            hash ^= Chess.RANDOM_ARRAY[Chess.RANDOM_CASTLE];
+        }
+        if (this.castleWqueenOk) {
+            hash ^= Chess.RANDOM_ARRAY[Chess.RANDOM_CASTLE + 1];
+        }
+        if (this.castleBkingOk) {
+            hash ^= Chess.RANDOM_ARRAY[Chess.RANDOM_CASTLE + 2];
+        }
+        if (this.castleBqueenOk) {
+            hash ^= Chess.RANDOM_ARRAY[Chess.RANDOM_CASTLE + 3];
+        }
+        hash ^= this.zobristEpKey();
+        if (this.turn == Chess.WHITE) {
+            hash ^= Chess.RANDOM_ARRAY[Chess.RANDOM_TURN];
+        }
+        return hash;
+    }
+
     private int zobristPieceType(int piece) {
         switch (piece) {
         case Chess.BLACK_PAWN:
@@ -2002,6 +2641,11 @@ public class Board {
                 this.pieceList[Chess.IWHITE][i][j] = Chess.EMPTY;
                 this.pieceList[Chess.IBLACK][i][j] = Chess.EMPTY;
             }
+            this.pieceCount[Chess.IWHITE][i] = 0;
+            this.pieceCount[Chess.IBLACK][i] = 0;
+        }
+        for (int i = 0; i < 120; i++) {
+            this.pieceSlot[i] = -1;
         }
         for (int i = 21; i < 99; i++) {
             int piece = this.board[i];
@@ -2012,12 +2656,34 @@ public class Board {
                     color = Chess.IBLACK;
                 }
                 // piece contains now the piece type
-                for (int j = 0; j < 10; j++) {
-                    if (this.pieceList[color][piece][j] == Chess.EMPTY) {
-                        this.pieceList[color][piece][j] = i;
-                        break;
-                    }
+                this.addToPieceList(color, piece, i);
+            }
+        }
+    }
+
+    private void initBitboards() {
+
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 7; j++) {
+                this.pieces[i][j] = 0;
+            }
+            this.colors[i] = 0;
+            this.material[i] = 0;
+        }
+        this.occupied = 0;
+        for (int i = 21; i < 99; i++) {
+            int piece = this.board[i];
+            if (!(piece == Chess.EMPTY) && !(piece == 0xFF)) {
+                int color = Chess.IWHITE;
+                if (piece > 0x80) {
+                    piece = piece - 0x80;
+                    color = Chess.IBLACK;
                 }
+                long b = Bitboards.bit120(i);
+                this.pieces[color][piece] |= b;
+                this.colors[color] |= b;
+                this.occupied |= b;
+                this.material[color] += Chess.PIECE_VALUES[piece];
             }
         }
     }
@@ -0,0 +1,59 @@
+package ceb.engine;
+
+import java.util.ArrayDeque;
+
+/**
+ * Per-thread pool of scratch boards, for code that needs a position for a short while (checking a
+ * puzzle line, rendering a variation) and would otherwise allocate a Board each time.
+ *
+ * A board taken with acquire() must be given back with release() by the same thread, typically in
+ * a finally block, and not be used afterwards.
+ */
+public final class BoardPool {
+
+    // boards kept per thread, more are left to the garbage collector
+    private static final int MAX_POOLED = 8;
+
+    private static final ThreadLocal<ArrayDeque<Board>> POOL = new ThreadLocal<ArrayDeque<Board>>() {
+        @Override
+        protected ArrayDeque<Board> initialValue() {
+            return new ArrayDeque<Board>(MAX_POOLED);
+        }
+    };
+
+    private BoardPool() {
+    }
+
+    // a board of the pool in an unspecified position
+    public static Board acquire() {
+        Board board = POOL.get().pollLast();
+        return board == null ? new Board() : board;
+    }
+
+    // a board of the pool loaded from the fen, see Board.initFromFEN()
+    public static Board acquire(String fen) {
+        Board board = acquire();
+        try {
+            board.initFromFEN(fen);
+        } catch (IllegalArgumentException e) {
+            release(board);
+            throw e;
+        }
+        return board;
+    }
+
+    // a board of the pool holding a copy of the position, see Board.copyFrom()
+    public static Board acquire(Board position) {
+        Board board = acquire();
+        board.copyFrom(position);
+        return board;
+    }
+
+    public static void release(Board board) {
+        ArrayDeque<Board> pool = POOL.get();
+        if (pool.size() < MAX_POOLED) {
+            board.setPuzzle(null);
+            pool.addLast(board);
+        }
+    }
+}
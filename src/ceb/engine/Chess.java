@@ -16,6 +16,8 @@
 
 package ceb.engine;
 
+import java.util.Random;
+
 public class Chess {
 
     private Chess() {
@@ -29,6 +31,10 @@ public class Chess {
     public static final int QUEEN = 5;
     public static final int KING = 6;
 
+    // material value in centipawns, indexed by piece type. The king has no
+    // material value, it can't be traded
+    public static final int[] PIECE_VALUES = { 0, 100, 300, 300, 500, 900, 0 };
+
     public static final int FRINGE = 0xFF;
     public static final int ANY_PIECE = 0x08;
     public static final int ANY_SQUARE = 0;
@@ -147,27 +153,6 @@ public class Chess {
     public static final int H7 = 88;
     public static final int H8 = 98;
 
-    // attack table
-    // the index of this array corresponds to the distance
-    // between two squares of the board (note the board is
-    // encoded as a one dim array of size 120, where A1 = 21, H1 = 28
-    // A8 = 91, A8 = 98.
-    // the value denotes whether an enemy rook, bishop, knight, queen, king
-    // on one square can attack the other square. The following encoding
-    // is used:
-    // Bitposition Piece
-    // 0 Knight
-    // 1 Bishop
-    // 2 Rook
-    // 3 Queen
-    // 4 King
-    // e.g. distance one, i.e. index 1 (=left, up, down, right square) has
-    // value 0x1C = MSB 00011100 LSB, i.e. king, queen, rook can
-    // potentially attack
-    public static final int[] ATTACK_TABLE = { 0x00, 0x1C, 0x0C, 0x0C, 0x0C, 0x0C, 0x0C, 0x0C, 0x01, 0x1a, 0x1C, 0x1A, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0a, 0x01, 0x0C, 0x01, 0x0A, 0x00, 0x00,
-            0x00, 0x00, 0x0a, 0x00, 0x00, 0x0C, 0x00, 0x00, 0x0A, 0x00, 0x00, 0x0a, 0x00, 0x00, 0x00, 0x0C, 0x00, 0x00, 0x00, 0x0A, 0x0a, 0x00, 0x00, 0x00, 0x00, 0x0C, 0x00, 0x00, 0x00, 0x0a, 0x0A,
-            0x00, 0x00, 0x00, 0x00, 0x0C, 0x00, 0x00, 0x0a, 0x00, 0x00, 0x0A, 0x00, 0x00, 0x00, 0x0C, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x0A };
-
     // first dim is for different piece types
     // [piece_type[0] is DCOUNT (as in Byte Magazine paper)
     // [piece_type[1] ... [piece_type][4] resp.
@@ -200,10 +185,22 @@ public class Chess {
     public static final boolean BLACK = true;
     public static final int IBLACK = 1;
 
+    // offsets into RANDOM_ARRAY (Polyglot layout)
     public static final int RANDOM_CASTLE = 768;
     public static final int RANDOM_EN_PASSENT = 772;
     public static final int RANDOM_TURN = 780;
 
+    // Zobrist keys, generated from a fixed seed so that hashes are
+    // stable between runs
+    public static final long[] RANDOM_ARRAY = new long[781];
+
+    static {
+        Random random = new Random(0x5DEECE66DL);
+        for (int i = 0; i < RANDOM_ARRAY.length; i++) {
+            RANDOM_ARRAY[i] = random.nextLong();
+        }
+    }
+
     public static final int RES_UNDEF = 0;
     public static final int RES_WHITE_WINS = 1;
     public static final int RES_BLACK_WINS = 2;
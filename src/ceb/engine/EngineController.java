@@ -69,6 +69,15 @@ public class EngineController {
 
     }
 
+    // starts the engine, EngineThread runs InternalEngine in-process for InternalEngine.PATH
+    public void startEngine(Engine engine) {
+        sendCommand("start " + engine.getPath());
+    }
+
+    public void startInternalEngine() {
+        startEngine(InternalEngine.createEngine());
+    }
+
     public void sendCommand(String cmd) {
         try {
             cmdQueue.put(cmd);
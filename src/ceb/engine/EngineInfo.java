@@ -65,6 +65,9 @@ public class EngineInfo {
 
     boolean turn = Chess.WHITE;
     String fen = "";
+    // position of fen, used to render the pv lines
+    Board board;
+    final StringBuilder sanLine = new StringBuilder();
 
     int nrPvLines = 1;
 
@@ -107,6 +110,7 @@ public class EngineInfo {
         turn = Chess.WHITE;
 
         fen = "";
+        board = null;
         nrPvLines = 1;
 
         bestmove = "";
@@ -122,7 +126,16 @@ public class EngineInfo {
     public void setFen(String fen) {
         // update turn
         if(!fen.isEmpty()) {
-            Board board = new Board(fen);
+            // the board is reused from one position to the next
+            if (board == null) {
+                board = new Board();
+            }
+            try {
+                board.initFromFEN(fen);
+            } catch (IllegalArgumentException e) {
+                board = null;
+                throw e;
+            }
             this.turn = board.turn;
             this.fen = fen;
             this.halfmoves = board.halfmoveClock;
@@ -207,31 +220,11 @@ public class EngineInfo {
 
     private void updateSan(int multiPvIndex) {
 
-        if (pvList.size() > 0 && !fen.isEmpty()) {
-            pvSan.set(multiPvIndex, "");
-            Board b = new Board(fen);
-            boolean whiteMoves = true;
-            int moveNo = fullMoveNumber;
-            if (turn == Chess.BLACK) {
-                whiteMoves = false;
-                pvSan.set(multiPvIndex, pvSan.get(multiPvIndex) + moveNo + ". ...");
-            }
-                for (String moveUci : pvList) {
-                    try {
-                        Move mi = new Move(moveUci);
-                        String san = b.san(mi);
-                        if (whiteMoves) {
-                            pvSan.set(multiPvIndex, pvSan.get(multiPvIndex) + " " + moveNo + ". " + san);
-                        } else {
-                            pvSan.set(multiPvIndex, pvSan.get(multiPvIndex) + " " + san);
-                            moveNo++;
-                        }
-                        whiteMoves = !whiteMoves;
-                        b.apply(mi);
-                    } catch(IllegalArgumentException e) {
-                        continue;
-                    }
-                }
+        if (pvList.size() > 0 && board != null) {
+            // the whole line is rendered on one board, which is left unchanged
+            sanLine.setLength(0);
+            board.appendSanLine(sanLine, pvList);
+            pvSan.set(multiPvIndex, sanLine.toString());
         }
     }
 
@@ -124,7 +124,11 @@ public class EngineThread extends Thread {
                             engineInfo.clear();
                             String engineCmd = cmd.substring(6);
                             try {
-                                this.engineProcess = new ProcessBuilder(engineCmd).start();
+                                if (engineCmd.equals(InternalEngine.PATH)) {
+                                    this.engineProcess = InternalEngine.start();
+                                } else {
+                                    this.engineProcess = new ProcessBuilder(engineCmd).start();
+                                }
                                 this.engineInput = new BufferedWriter(new OutputStreamWriter(engineProcess.getOutputStream()));
                                 this.engineOutput = new BufferedReader(new InputStreamReader(engineProcess.getInputStream()));
                                 // engineRunning = true;
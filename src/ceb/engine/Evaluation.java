@@ -0,0 +1,138 @@
+package ceb.engine;
+
+/**
+ * Static evaluation used by Search: material plus piece-square tables, with the king table
+ * blended from middlegame to endgame as the pieces come off.
+ *
+ * Tables are written as seen from white, rank 8 on the first line. A white piece on square sq
+ * (a1 = 0) uses entry sq ^ 56, a black piece entry sq.
+ */
+public final class Evaluation {
+
+    private Evaluation() {
+    }
+
+    private static final int[] PAWN_TABLE = {
+             0,   0,   0,   0,   0,   0,   0,   0,
+            50,  50,  50,  50,  50,  50,  50,  50,
+            10,  10,  20,  30,  30,  20,  10,  10,
+             5,   5,  10,  25,  25,  10,   5,   5,
+             0,   0,   0,  20,  20,   0,   0,   0,
+             5,  -5, -10,   0,   0, -10,  -5,   5,
+             5,  10,  10, -20, -20,  10,  10,   5,
+             0,   0,   0,   0,   0,   0,   0,   0 };
+
+    private static final int[] KNIGHT_TABLE = {
+            -50, -40, -30, -30, -30, -30, -40, -50,
+            -40, -20,   0,   0,   0,   0, -20, -40,
+            -30,   0,  10,  15,  15,  10,   0, -30,
+            -30,   5,  15,  20,  20,  15,   5, -30,
+            -30,   0,  15,  20,  20,  15,   0, -30,
+            -30,   5,  10,  15,  15,  10,   5, -30,
+            -40, -20,   0,   5,   5,   0, -20, -40,
+            -50, -40, -30, -30, -30, -30, -40, -50 };
+
+    private static final int[] BISHOP_TABLE = {
+            -20, -10, -10, -10, -10, -10, -10, -20,
+            -10,   0,   0,   0,   0,   0,   0, -10,
+            -10,   0,   5,  10,  10,   5,   0, -10,
+            -10,   5,   5,  10,  10,   5,   5, -10,
+            -10,   0,  10,  10,  10,  10,   0, -10,
+            -10,  10,  10,  10,  10,  10,  10, -10,
+            -10,   5,   0,   0,   0,   0,   5, -10,
+            -20, -10, -10, -10, -10, -10, -10, -20 };
+
+    private static final int[] ROOK_TABLE = {
+              0,   0,   0,   0,   0,   0,   0,   0,
+              5,  10,  10,  10,  10,  10,  10,   5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+             -5,   0,   0,   0,   0,   0,   0,  -5,
+              0,   0,   0,   5,   5,   0,   0,   0 };
+
+    private static final int[] QUEEN_TABLE = {
+            -20, -10, -10,  -5,  -5, -10, -10, -20,
+            -10,   0,   0,   0,   0,   0,   0, -10,
+            -10,   0,   5,   5,   5,   5,   0, -10,
+             -5,   0,   5,   5,   5,   5,   0,  -5,
+              0,   0,   5,   5,   5,   5,   0,  -5,
+            -10,   5,   5,   5,   5,   5,   0, -10,
+            -10,   0,   5,   0,   0,   0,   0, -10,
+            -20, -10, -10,  -5,  -5, -10, -10, -20 };
+
+    private static final int[] KING_MIDDLEGAME_TABLE = {
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -20, -30, -30, -40, -40, -30, -30, -20,
+            -10, -20, -20, -20, -20, -20, -20, -10,
+             20,  20,   0,   0,   0,   0,  20,  20,
+             20,  30,  10,   0,   0,  10,  30,  20 };
+
+    private static final int[] KING_ENDGAME_TABLE = {
+            -50, -40, -30, -20, -20, -30, -40, -50,
+            -30, -20, -10,   0,   0, -10, -20, -30,
+            -30, -10,  20,  30,  30,  20, -10, -30,
+            -30, -10,  30,  40,  40,  30, -10, -30,
+            -30, -10,  30,  40,  40,  30, -10, -30,
+            -30, -10,  20,  30,  30,  20, -10, -30,
+            -30, -30,   0,   0,   0,   0, -30, -30,
+            -50, -30, -30, -30, -30, -30, -30, -50 };
+
+    // indexed by piece type, the king is handled separately
+    private static final int[][] TABLES = { null, PAWN_TABLE, KNIGHT_TABLE, BISHOP_TABLE, ROOK_TABLE, QUEEN_TABLE };
+
+    // game phase weight of each piece type, 24 with all pieces on the board
+    private static final int[] PHASE = { 0, 0, 1, 1, 2, 4, 0 };
+    private static final int MAX_PHASE = 24;
+
+    // score in centipawns from the view of the side to move
+    public static int evaluate(Board board) {
+        if (isDeadDraw(board)) {
+            return 0;
+        }
+        int score = 0;
+        int phase = 0;
+        for (int pieceType = Chess.PAWN; pieceType < Chess.KING; pieceType++) {
+            int[] table = TABLES[pieceType];
+            for (long b = board.getPieces(Chess.WHITE, pieceType); b != 0; b &= b - 1) {
+                score += table[Long.numberOfTrailingZeros(b) ^ 56];
+                phase += PHASE[pieceType];
+            }
+            for (long b = board.getPieces(Chess.BLACK, pieceType); b != 0; b &= b - 1) {
+                score -= table[Long.numberOfTrailingZeros(b)];
+                phase += PHASE[pieceType];
+            }
+        }
+        phase = Math.min(phase, MAX_PHASE);
+        score += kingScore(board.getPieces(Chess.WHITE, Chess.KING), 56, phase);
+        score -= kingScore(board.getPieces(Chess.BLACK, Chess.KING), 0, phase);
+        score += board.getMaterialBalance();
+        return board.getTurn() == Chess.WHITE ? score : -score;
+    }
+
+    // bare kings, or a single knight or bishop against a bare king: neither side can mate
+    private static boolean isDeadDraw(Board board) {
+        for (int pieceType = Chess.PAWN; pieceType < Chess.KING; pieceType++) {
+            if (pieceType != Chess.KNIGHT && pieceType != Chess.BISHOP
+                    && (board.getPieces(Chess.WHITE, pieceType) | board.getPieces(Chess.BLACK, pieceType)) != 0) {
+                return false;
+            }
+        }
+        long minors = board.getPieces(Chess.WHITE, Chess.KNIGHT) | board.getPieces(Chess.WHITE, Chess.BISHOP) | board.getPieces(Chess.BLACK, Chess.KNIGHT)
+                | board.getPieces(Chess.BLACK, Chess.BISHOP);
+        return Long.bitCount(minors) <= 1;
+    }
+
+    private static int kingScore(long kings, int flip, int phase) {
+        int score = 0;
+        for (long b = kings; b != 0; b &= b - 1) {
+            int sq = Long.numberOfTrailingZeros(b) ^ flip;
+            score += (KING_MIDDLEGAME_TABLE[sq] * phase + KING_ENDGAME_TABLE[sq] * (MAX_PHASE - phase)) / MAX_PHASE;
+        }
+        return score;
+    }
+}
@@ -0,0 +1,382 @@
+package ceb.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Search behind a UCI facade, started in-process instead of an external engine binary.
+ *
+ * It extends Process, so EngineThread talks to it through the same streams as to a spawned engine:
+ * commands written to getOutputStream() are handled line by line on a daemon thread, and the
+ * answers (id, uciok, readyok, info, bestmove) are read from getInputStream().
+ */
+public final class InternalEngine extends Process {
+
+    public static final String NAME = "EloBooster";
+    // engine path that starts the internal engine, see EngineThread
+    public static final String PATH = "internal";
+
+    private static final int DEFAULT_HASH_MB = 16;
+
+    // queued after the last line, compared by identity
+    private static final String END_OF_OUTPUT = new String("quit");
+
+    private final BlockingQueue<String> commands = new LinkedBlockingQueue<String>();
+    private final BlockingQueue<String> output = new LinkedBlockingQueue<String>();
+    private final OutputStream commandStream = new LineOutputStream();
+    private final InputStream outputStream = new LineInputStream();
+    private final Thread uciThread;
+
+    private final Board board = new Board(true);
+    private TranspositionTable table = new TranspositionTable(DEFAULT_HASH_MB);
+    private volatile Search search;
+    private Thread searchThread;
+
+    private InternalEngine() {
+        this.uciThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                uciLoop();
+            }
+        }, NAME);
+        this.uciThread.setDaemon(true);
+    }
+
+    public static InternalEngine start() {
+        InternalEngine engine = new InternalEngine();
+        engine.uciThread.start();
+        return engine;
+    }
+
+    // the Engine entry for the internal engine
+    public static Engine createEngine() {
+        Engine engine = new Engine();
+        engine.setName(NAME);
+        engine.setPath(PATH);
+        engine.setInternal(true);
+        return engine;
+    }
+
+    private void uciLoop() {
+        try {
+            while (true) {
+                String cmd = this.commands.take().trim();
+                if (cmd.equals("quit")) {
+                    break;
+                }
+                this.handle(cmd);
+            }
+        } catch (InterruptedException e) {
+            // destroyed
+        }
+        this.stopSearch();
+        this.output.add(END_OF_OUTPUT);
+    }
+
+    private void handle(String cmd) {
+        if (cmd.equals("uci")) {
+            this.send("id name " + NAME);
+            this.send("id author EloBooster");
+            this.send("option name Hash type spin default " + DEFAULT_HASH_MB + " min 1 max 1024");
+            this.send("uciok");
+        } else if (cmd.equals("isready")) {
+            this.send("readyok");
+        } else if (cmd.equals("ucinewgame")) {
+            this.stopSearch();
+            this.board.resetToStartingPosition();
+            this.table.clear();
+        } else if (cmd.startsWith("setoption name Hash value ")) {
+            this.stopSearch();
+            try {
+                this.table = new TranspositionTable(Integer.parseInt(cmd.substring(26).trim()));
+            } catch (IllegalArgumentException e) {
+                this.send("info string " + e.getMessage());
+            }
+        } else if (cmd.startsWith("position")) {
+            this.stopSearch();
+            this.position(cmd);
+        } else if (cmd.startsWith("go")) {
+            this.stopSearch();
+            this.go(cmd);
+        } else if (cmd.equals("stop")) {
+            this.stopSearch();
+        }
+        // other commands and options are ignored
+    }
+
+    // position startpos|fen <fen> [moves <uci> ...]
+    private void position(String cmd) {
+        String[] tokens = cmd.split("\\s+");
+        int i = 1;
+        if (i < tokens.length && tokens[i].equals("startpos")) {
+            this.board.resetToStartingPosition();
+            i++;
+        } else if (i < tokens.length && tokens[i].equals("fen")) {
+            StringBuilder fen = new StringBuilder();
+            for (i++; i < tokens.length && !tokens[i].equals("moves"); i++) {
+                if (fen.length() > 0) {
+                    fen.append(' ');
+                }
+                fen.append(tokens[i]);
+            }
+            try {
+                this.board.initFromFEN(fen.toString());
+            } catch (IllegalArgumentException e) {
+                this.send("info string " + e.getMessage());
+                this.board.resetToStartingPosition();
+                return;
+            }
+        }
+        if (i < tokens.length && tokens[i].equals("moves")) {
+            for (i++; i < tokens.length; i++) {
+                int move;
+                try {
+                    move = Move.encodeUci(tokens[i]);
+                } catch (IllegalArgumentException e) {
+                    move = Move.NULL_MOVE;
+                }
+                if (Move.isNullMove(move) || !this.board.isLegal(move)) {
+                    this.send("info string illegal move " + tokens[i]);
+                    return;
+                }
+                this.board.apply(move);
+            }
+        }
+    }
+
+    // go [depth n] [nodes n] [movetime ms] [wtime ms btime ms winc ms binc ms movestogo n] [infinite]
+    private void go(String cmd) {
+        String[] tokens = cmd.split("\\s+");
+        int depth = Search.MAX_PLY;
+        long nodes = 0;
+        long moveTime = 0;
+        long time = 0;
+        long inc = 0;
+        int movesToGo = 30;
+        boolean infinite = false;
+        boolean white = this.board.getTurn() == Chess.WHITE;
+        for (int i = 1; i < tokens.length; i++) {
+            String t = tokens[i];
+            if (t.equals("infinite")) {
+                infinite = true;
+                continue;
+            }
+            if (i + 1 >= tokens.length) {
+                break;
+            }
+            long value;
+            try {
+                value = Long.parseLong(tokens[i + 1]);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            i++;
+            if (t.equals("depth")) {
+                depth = (int) Math.max(1, Math.min(value, Search.MAX_PLY));
+            } else if (t.equals("mate")) {
+                depth = (int) Math.max(1, Math.min(2 * value, Search.MAX_PLY));
+            } else if (t.equals("nodes")) {
+                nodes = value;
+            } else if (t.equals("movetime")) {
+                moveTime = value;
+            } else if ((t.equals("wtime") && white) || (t.equals("btime") && !white)) {
+                time = value;
+            } else if ((t.equals("winc") && white) || (t.equals("binc") && !white)) {
+                inc = value;
+            } else if (t.equals("movestogo")) {
+                movesToGo = (int) Math.max(1, value);
+            }
+        }
+        if (moveTime == 0 && time > 0) {
+            moveTime = Math.max(1, Math.min(time / movesToGo + inc / 2, time / 2));
+        }
+        final int maxDepth = depth;
+        final long maxNodes = nodes;
+        final long maxTime = infinite ? 0 : moveTime;
+        final boolean waitForStop = infinite;
+        final Search s = new Search(this.board.makeCopy(), this.table);
+        s.setListener(new Search.Listener() {
+            @Override
+            public void info(Search.Result r) {
+                sendInfo(r);
+            }
+        });
+        this.search = s;
+        this.searchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Search.Result r = s.search(maxDepth, maxTime, maxNodes);
+                // in infinite mode, bestmove is only sent after stop
+                while (waitForStop && !s.isStopped()) {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                send("bestmove " + (r == null ? "0000" : Move.decode(r.getBestMove()).getUci().toLowerCase()));
+            }
+        }, NAME + " search");
+        this.searchThread.setDaemon(true);
+        this.searchThread.start();
+    }
+
+    private void stopSearch() {
+        if (this.searchThread != null) {
+            this.search.stop();
+            try {
+                this.searchThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.searchThread = null;
+            this.search = null;
+        }
+    }
+
+    private void sendInfo(Search.Result r) {
+        StringBuilder b = new StringBuilder("info depth ");
+        b.append(r.getDepth()).append(" seldepth ").append(r.getSelDepth());
+        if (r.isMate()) {
+            b.append(" score mate ").append(r.getMateIn());
+        } else {
+            b.append(" score cp ").append(r.getScore());
+        }
+        b.append(" nodes ").append(r.getNodes());
+        b.append(" nps ").append(r.getNodes() * 1000 / Math.max(1, r.getMillis()));
+        b.append(" time ").append(r.getMillis());
+        b.append(" hashfull ").append(this.table.hashfull());
+        b.append(" pv ").append(r.getPvString());
+        this.send(b.toString());
+    }
+
+    private void send(String line) {
+        this.output.add(line);
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.commandStream;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return this.outputStream;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+        this.uciThread.join();
+        return 0;
+    }
+
+    @Override
+    public int exitValue() {
+        if (this.uciThread.isAlive()) {
+            throw new IllegalThreadStateException("internal engine is running");
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean isAlive() {
+        return this.uciThread.isAlive();
+    }
+
+    @Override
+    public void destroy() {
+        this.uciThread.interrupt();
+    }
+
+    // splits the bytes written by the gui into command lines
+    private final class LineOutputStream extends OutputStream {
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (InternalEngine.this.uciThread.getState() == Thread.State.TERMINATED) {
+                throw new IOException("internal engine has quit");
+            }
+            if (b == '\n') {
+                InternalEngine.this.commands.add(new String(this.line.toByteArray(), StandardCharsets.UTF_8));
+                this.line.reset();
+            } else if (b != '\r') {
+                this.line.write(b);
+            }
+        }
+    }
+
+    // serves the queued output lines, newline terminated. End of stream after quit
+    private final class LineInputStream extends InputStream {
+        private byte[] current = new byte[0];
+        private int pos;
+        private boolean closed;
+
+        @Override
+        public synchronized int read() throws IOException {
+            if (!this.fill()) {
+                return -1;
+            }
+            return this.current[this.pos++] & 0xFF;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!this.fill()) {
+                return -1;
+            }
+            int n = Math.min(len, this.current.length - this.pos);
+            System.arraycopy(this.current, this.pos, b, off, n);
+            this.pos += n;
+            return n;
+        }
+
+        @Override
+        public synchronized int available() {
+            int n = this.current.length - this.pos;
+            if (n == 0 && !this.closed) {
+                String next = InternalEngine.this.output.peek();
+                if (next != null && next != END_OF_OUTPUT) {
+                    n = next.length() + 1;
+                }
+            }
+            return n;
+        }
+
+        // blocks until there is something to read, false at the end of the output
+        private boolean fill() throws IOException {
+            while (this.pos == this.current.length) {
+                if (this.closed) {
+                    return false;
+                }
+                String next;
+                try {
+                    next = InternalEngine.this.output.take();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                if (next == END_OF_OUTPUT) {
+                    this.closed = true;
+                    return false;
+                }
+                this.current = (next + "\n").getBytes(StandardCharsets.UTF_8);
+                this.pos = 0;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ceb.engine;
+
+/**
+ * Proves or refutes mate in n moves with a depth-limited AND/OR search: the side to move mates in
+ * n if one of its moves leaves every reply mated in n - 1. Results of the attacking side's nodes are
+ * cached per position, so transpositions and the iterations over n are searched once.
+ *
+ * A solver works on the board it is given and leaves it unchanged. It is not thread safe, use one
+ * solver per thread.
+ */
+public final class MateSolver {
+
+    private static final int MAX_MOVES = 16;
+    private static final int TABLE_BITS = 18;
+
+    private final MoveList[] moves = new MoveList[2 * MAX_MOVES + 1];
+    private final boolean[][] checks = new boolean[2 * MAX_MOVES + 1][];
+    // per ply: the last defence that escaped, tried first as it often refutes the sibling moves too
+    private final int[] killers = new int[2 * MAX_MOVES + 1];
+
+    // per position: smallest n with a proven mate, largest n without mate (0 if unknown)
+    private final long[] keys = new long[1 << TABLE_BITS];
+    private final byte[] provenIn = new byte[1 << TABLE_BITS];
+    private final byte[] disprovenIn = new byte[1 << TABLE_BITS];
+
+    private Board board;
+    private long nodes;
+
+    public MateSolver() {
+        for (int i = 0; i < this.moves.length; i++) {
+            this.moves[i] = new MoveList();
+            this.checks[i] = new boolean[256];
+        }
+    }
+
+    public long getNodes() {
+        return this.nodes;
+    }
+
+    // true if the side to move mates in at most n moves
+    public boolean isMateIn(Board board, int n) {
+        this.checkMoves(n);
+        this.board = board;
+        return this.mates(n, 0);
+    }
+
+    // collects all moves of the side to move that mate in at most n moves
+    public void mateMoves(Board board, int n, MoveList result) {
+        this.checkMoves(n);
+        this.board = board;
+        result.clear();
+        MoveList list = this.moves[0];
+        board.legalMoves(list);
+        for (int i = 0; i < list.size(); i++) {
+            int move = list.get(i);
+            if (n == 1 && !board.givesCheck(move)) {
+                continue;
+            }
+            board.apply(move);
+            boolean mate = n == 1 ? board.isCheckmate() : !this.escapes(n - 1, 1);
+            board.undo();
+            if (mate) {
+                result.add(move);
+            }
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < this.keys.length; i++) {
+            this.keys[i] = 0;
+            this.provenIn[i] = 0;
+            this.disprovenIn[i] = 0;
+        }
+    }
+
+    private void checkMoves(int n) {
+        if (n < 1 || n > MAX_MOVES) {
+            throw new IllegalArgumentException("mate search needs 1 to " + MAX_MOVES + " moves: " + n);
+        }
+    }
+
+    // OR node: the attacker to move
+    private boolean mates(int n, int ply) {
+        this.nodes++;
+        long key = this.board.getZobristHash();
+        int slot = (int) (key >>> (64 - TABLE_BITS));
+        if (this.keys[slot] == key) {
+            if (this.provenIn[slot] != 0 && this.provenIn[slot] <= n) {
+                return true;
+            }
+            if (this.disprovenIn[slot] >= n) {
+                return false;
+            }
+        } else {
+            this.keys[slot] = key;
+            this.provenIn[slot] = 0;
+            this.disprovenIn[slot] = 0;
+        }
+        MoveList list = this.moves[ply];
+        this.board.legalMoves(list);
+        boolean[] givesCheck = this.checks[ply];
+        if (givesCheck.length < list.size()) {
+            givesCheck = new boolean[list.size()];
+            this.checks[ply] = givesCheck;
+        }
+        // checks are tried first, and they are the only moves that mate in one
+        boolean mate = false;
+        for (int i = 0; i < list.size() && !mate; i++) {
+            givesCheck[i] = this.board.givesCheck(list.get(i));
+            if (givesCheck[i]) {
+                this.board.apply(list.get(i));
+                mate = n == 1 ? !this.board.hasAnyLegalMove() : !this.escapes(n - 1, ply + 1);
+                this.board.undo();
+            }
+        }
+        for (int i = 0; i < list.size() && !mate && n > 1; i++) {
+            if (!givesCheck[i]) {
+                this.board.apply(list.get(i));
+                mate = !this.escapes(n - 1, ply + 1);
+                this.board.undo();
+            }
+        }
+        // the slot may have been taken by a position of the subtree
+        this.keys[slot] = key;
+        if (mate) {
+            this.provenIn[slot] = (byte) n;
+            this.disprovenIn[slot] = 0;
+        } else {
+            this.disprovenIn[slot] = (byte) n;
+            this.provenIn[slot] = 0;
+        }
+        return mate;
+    }
+
+    // AND node: the defender to move escapes if one of its moves avoids mate in n
+    private boolean escapes(int n, int ply) {
+        this.nodes++;
+        MoveList list = this.moves[ply];
+        this.board.legalMoves(list);
+        if (list.isEmpty()) {
+            // stalemate escapes, checkmate doesn't
+            return !this.board.isCheck();
+        }
+        int killer = this.killers[ply];
+        if (list.contains(killer)) {
+            this.board.apply(killer);
+            boolean mate = this.mates(n, ply + 1);
+            this.board.undo();
+            if (!mate) {
+                return true;
+            }
+        }
+        for (int i = 0; i < list.size(); i++) {
+            int move = list.get(i);
+            if (move == killer) {
+                continue;
+            }
+            this.board.apply(move);
+            boolean mate = this.mates(n, ply + 1);
+            this.board.undo();
+            if (!mate) {
+                this.killers[ply] = move;
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -18,6 +18,11 @@ package ceb.engine;
 
 public class Move {
 
+    // a move can also be packed into an int, which is what MoveList stores:
+    // bits 0-6 from square, bits 7-13 to square, bits 14-16 promotion piece
+    // and bit 17 for the null move
+    public static final int NULL_MOVE = 1 << 17;
+
     int from;
     int to;
     int promotionPiece;
@@ -102,6 +107,81 @@ public class Move {
 
     }
 
+    public static int encode(int from, int to, int promotionPiece) {
+        return from | (to << 7) | (promotionPiece << 14);
+    }
+
+    public static int getSourceSquare(int move) {
+        return move & 0x7F;
+    }
+
+    public static int getTargetSquare(int move) {
+        return (move >>> 7) & 0x7F;
+    }
+
+    public static int getPromotionPiece(int move) {
+        return (move >>> 14) & 0x07;
+    }
+
+    public static boolean isNullMove(int move) {
+        return (move & NULL_MOVE) != 0;
+    }
+
+    // packs a move in uci notation, e.g. "e7e8q", without creating a Move
+    public static int encodeUci(String uci) {
+        if (uci.equals("0000")) {
+            return NULL_MOVE;
+        }
+        if (!(uci.length() == 4 || uci.length() == 5)) {
+            throw new IllegalArgumentException("illegal uci string: " + uci);
+        }
+        int from = uciSquare(uci, 0);
+        int to = uciSquare(uci, 2);
+        int promotionPiece = Chess.EMPTY;
+        if (uci.length() == 5) {
+            switch (Character.toUpperCase(uci.charAt(4))) {
+            case 'N':
+                promotionPiece = Chess.KNIGHT;
+                break;
+            case 'B':
+                promotionPiece = Chess.BISHOP;
+                break;
+            case 'R':
+                promotionPiece = Chess.ROOK;
+                break;
+            case 'Q':
+                promotionPiece = Chess.QUEEN;
+                break;
+            default:
+                throw new IllegalArgumentException("illegal uci string: " + uci);
+            }
+        }
+        return encode(from, to, promotionPiece);
+    }
+
+    private static int uciSquare(String uci, int index) {
+        int column = Character.toLowerCase(uci.charAt(index)) - 'a';
+        int row = uci.charAt(index + 1) - '1';
+        if (column < 0 || column > 7 || row < 0 || row > 7) {
+            throw new IllegalArgumentException("illegal uci string: " + uci);
+        }
+        return ((row + 2) * 10) + (column + 1);
+    }
+
+    public static Move decode(int move) {
+        if (isNullMove(move)) {
+            return new Move();
+        }
+        return new Move(getSourceSquare(move), getTargetSquare(move), getPromotionPiece(move));
+    }
+
+    public int encode() {
+        if (this.isNullMove) {
+            return NULL_MOVE;
+        }
+        return encode(this.from, this.to, this.promotionPiece);
+    }
+
     public void setPromotionPiece(int promotionPiece) {
         this.promotionPiece = promotionPiece;
     }
@@ -0,0 +1,89 @@
+package ceb.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// reusable buffer of moves packed as ints (see Move.encode),
+// filled by the move generator without allocating Move objects
+public final class MoveList {
+    private int[] moves;
+    private int size;
+
+    public MoveList() {
+        this(256);
+    }
+
+    public MoveList(int capacity) {
+        this.moves = new int[capacity];
+    }
+
+    public void add(int move) {
+        if (this.size == this.moves.length) {
+            this.moves = Arrays.copyOf(this.moves, 2 * this.size);
+        }
+        this.moves[this.size++] = move;
+    }
+
+    public int get(int index) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException("index " + index + " size " + this.size);
+        }
+        return this.moves[index];
+    }
+
+    public void set(int index, int move) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException("index " + index + " size " + this.size);
+        }
+        this.moves[index] = move;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+
+    // drops every move from index on, used to filter a list in place
+    public void truncate(int size) {
+        if (size < 0 || size > this.size) {
+            throw new IllegalArgumentException("cannot truncate " + this.size + " moves to " + size);
+        }
+        this.size = size;
+    }
+
+    public boolean contains(int move) {
+        for (int i = 0; i < this.size; i++) {
+            if (this.moves[i] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public ArrayList<Move> toMoves() {
+        ArrayList<Move> result = new ArrayList<Move>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            result.add(Move.decode(this.moves[i]));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < this.size; i++) {
+            if (i > 0) {
+                b.append(' ');
+            }
+            b.append(Move.decode(this.moves[i]).getUci());
+        }
+        return b.toString();
+    }
+}
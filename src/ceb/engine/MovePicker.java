@@ -0,0 +1,224 @@
+package ceb.engine;
+
+/**
+ * Hands out the legal moves of a position one at a time, in stages: the hash move, captures by
+ * most valuable victim and least valuable attacker, promotions, quiet checks, then the other quiet
+ * moves (killers first, then by history if given). A stage is only generated when the previous
+ * one is used up, so a node that cuts off on a capture or a check never generates its other quiet
+ * moves.
+ *
+ * The board must be in the position given to init() whenever next() is called, moves applied in
+ * between have to be undone first. A picker is reused from node to node without allocating.
+ */
+public final class MovePicker {
+
+    private static final int STAGE_HASH = 0;
+    private static final int STAGE_INIT_CAPTURES = 1;
+    private static final int STAGE_CAPTURES = 2;
+    private static final int STAGE_INIT_PROMOTIONS = 3;
+    private static final int STAGE_PROMOTIONS = 4;
+    private static final int STAGE_INIT_CHECKS = 5;
+    private static final int STAGE_CHECKS = 6;
+    private static final int STAGE_INIT_QUIETS = 7;
+    private static final int STAGE_QUIETS = 8;
+    private static final int STAGE_DONE = 9;
+
+    private static final long RANK_2 = 0x000000000000FF00L;
+    private static final long RANK_7 = 0x00FF000000000000L;
+
+    private final Board board;
+    private final MoveList moves = new MoveList();
+    // the quiet checks, left out of the quiet moves
+    private final MoveList checks = new MoveList();
+    private int[] scores = new int[256];
+    private int index;
+    private int stage;
+    private boolean tacticalOnly;
+
+    private int hashMove;
+    private int killer1;
+    private int killer2;
+    private int[][] history;
+
+    public MovePicker(Board board) {
+        this.board = board;
+    }
+
+    // all legal moves, the hash move first if it is legal (Move.NULL_MOVE for none)
+    public void init(int hashMove) {
+        this.init(hashMove, Move.NULL_MOVE, Move.NULL_MOVE, null);
+    }
+
+    // all legal moves; quiet moves that aren't checks come killers first, then by decreasing
+    // history[from][to] (mailbox squares), history may be null
+    public void init(int hashMove, int killer1, int killer2, int[][] history) {
+        this.hashMove = hashMove;
+        this.killer1 = killer1;
+        this.killer2 = killer2;
+        this.history = history;
+        this.tacticalOnly = false;
+        this.stage = STAGE_HASH;
+    }
+
+    // the legal captures and promotions only
+    public void initTactical() {
+        this.init(Move.NULL_MOVE);
+        this.tacticalOnly = true;
+    }
+
+    // the next legal move, Move.NULL_MOVE once all were returned
+    public int next() {
+        while (true) {
+            switch (this.stage) {
+            case STAGE_HASH:
+                this.stage = STAGE_INIT_CAPTURES;
+                if (!Move.isNullMove(this.hashMove) && this.board.isLegal(this.hashMove)) {
+                    return this.hashMove;
+                }
+                break;
+            case STAGE_INIT_CAPTURES:
+                this.board.legalCaptures(this.moves);
+                this.index = 0;
+                this.scoreCaptures();
+                this.stage = STAGE_CAPTURES;
+                break;
+            case STAGE_CAPTURES:
+                if (this.index < this.moves.size()) {
+                    int move = this.pickBest();
+                    if (move != this.hashMove) {
+                        return move;
+                    }
+                } else {
+                    this.stage = STAGE_INIT_PROMOTIONS;
+                }
+                break;
+            case STAGE_INIT_PROMOTIONS:
+                this.moves.clear();
+                // most positions have no pawn that could promote
+                boolean white = this.board.getTurn() == Chess.WHITE;
+                if ((this.board.getPieces(this.board.getTurn(), Chess.PAWN) & (white ? RANK_7 : RANK_2)) != 0) {
+                    this.board.legalPromotions(this.moves);
+                }
+                this.index = 0;
+                this.stage = STAGE_PROMOTIONS;
+                break;
+            case STAGE_PROMOTIONS:
+                if (this.index < this.moves.size()) {
+                    int move = this.moves.get(this.index++);
+                    if (move != this.hashMove) {
+                        return move;
+                    }
+                } else {
+                    this.stage = this.tacticalOnly ? STAGE_DONE : STAGE_INIT_CHECKS;
+                }
+                break;
+            case STAGE_INIT_CHECKS:
+                this.board.legalQuietChecks(this.checks);
+                this.index = 0;
+                this.stage = STAGE_CHECKS;
+                break;
+            case STAGE_CHECKS:
+                if (this.index < this.checks.size()) {
+                    int move = this.checks.get(this.index++);
+                    if (move != this.hashMove) {
+                        return move;
+                    }
+                } else {
+                    this.stage = STAGE_INIT_QUIETS;
+                }
+                break;
+            case STAGE_INIT_QUIETS:
+                this.board.legalQuiets(this.moves);
+                this.removeChecks();
+                this.index = 0;
+                this.scoreQuiets();
+                this.stage = STAGE_QUIETS;
+                break;
+            case STAGE_QUIETS:
+                if (this.index < this.moves.size()) {
+                    int move = this.pickBest();
+                    if (move != this.hashMove) {
+                        return move;
+                    }
+                } else {
+                    this.stage = STAGE_DONE;
+                }
+                break;
+            default:
+                return Move.NULL_MOVE;
+            }
+        }
+    }
+
+    // most valuable victim first, then least valuable attacker
+    private void scoreCaptures() {
+        this.ensureScores();
+        for (int i = 0; i < this.moves.size(); i++) {
+            int move = this.moves.get(i);
+            int victim = this.board.getPieceAt(Move.getTargetSquare(move)) & 0x07;
+            if (victim == Chess.EMPTY) {
+                // e.p.
+                victim = Chess.PAWN;
+            }
+            int attacker = this.board.getPieceAt(Move.getSourceSquare(move)) & 0x07;
+            this.scores[i] = Chess.PIECE_VALUES[victim] * 8 + Chess.PIECE_VALUES[Move.getPromotionPiece(move)] - attacker;
+        }
+    }
+
+    // drops the quiet moves already returned as checks
+    private void removeChecks() {
+        if (this.checks.isEmpty()) {
+            return;
+        }
+        int n = 0;
+        for (int i = 0; i < this.moves.size(); i++) {
+            int move = this.moves.get(i);
+            if (!this.checks.contains(move)) {
+                this.moves.set(n++, move);
+            }
+        }
+        this.moves.truncate(n);
+    }
+
+    private void scoreQuiets() {
+        this.ensureScores();
+        for (int i = 0; i < this.moves.size(); i++) {
+            int move = this.moves.get(i);
+            if (move == this.killer1) {
+                this.scores[i] = Integer.MAX_VALUE;
+            } else if (move == this.killer2) {
+                this.scores[i] = Integer.MAX_VALUE - 1;
+            } else if (this.history != null) {
+                this.scores[i] = this.history[Move.getSourceSquare(move)][Move.getTargetSquare(move)];
+            } else {
+                this.scores[i] = 0;
+            }
+        }
+    }
+
+    // selection sort step: swaps the best scored move of the rest to index and returns it
+    private int pickBest() {
+        int best = this.index;
+        for (int i = this.index + 1; i < this.moves.size(); i++) {
+            if (this.scores[i] > this.scores[best]) {
+                best = i;
+            }
+        }
+        int move = this.moves.get(best);
+        if (best != this.index) {
+            this.moves.set(best, this.moves.get(this.index));
+            this.moves.set(this.index, move);
+            int score = this.scores[best];
+            this.scores[best] = this.scores[this.index];
+            this.scores[this.index] = score;
+        }
+        this.index++;
+        return move;
+    }
+
+    private void ensureScores() {
+        if (this.scores.length < this.moves.size()) {
+            this.scores = new int[this.moves.size()];
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package ceb.engine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the leaf nodes of the move tree to a fixed depth, to verify the move generator and
+ * measure its speed.
+ *
+ * Usage: Perft runs the position suite below, Perft depth [fen] prints the node count of every
+ * root move (divide) of the given position, or of the starting position if no FEN is given.
+ */
+public final class Perft {
+
+    // fen, depth, expected node count
+    private static final Object[][] SUITE = {
+            // starting position
+            { "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", 5, 4865609L },
+            // kiwipete
+            { "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", 4, 4085603L },
+            { "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", 5, 674624L },
+            { "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1", 4, 422333L },
+            { "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8", 4, 2103487L },
+            { "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10", 4, 3894594L },
+            // e.p. capture that would expose the king
+            { "8/8/1k6/2b5/2pP4/8/5K2/8 b - d3 0 1", 6, 1440467L },
+            // e.p. capture giving a discovered check
+            { "3k4/3p4/8/K1P4r/8/8/8/8 b - - 0 1", 6, 1134888L },
+            // castling giving check
+            { "5k2/8/8/8/8/8/8/4K2R w K - 0 1", 6, 661072L },
+            { "3k4/8/8/8/8/8/8/R3K3 w Q - 0 1", 6, 803711L },
+            // castling rights lost by captures and rook moves
+            { "r3k2r/1b4bq/8/8/8/8/7B/R3K2R w KQkq - 0 1", 4, 1274206L },
+            // castling prevented by attacked squares
+            { "r3k2r/8/3Q4/8/8/5q2/8/R3K2R b KQkq - 0 1", 4, 1720476L },
+            // promotion out of check
+            { "2K2r2/4P3/8/8/8/8/8/3k4 w - - 0 1", 6, 3821001L },
+            // discovered check
+            { "8/8/1P2K3/8/2n5/1q6/8/5k2 b - - 0 1", 5, 1004658L },
+            // promotion and under-promotion giving check
+            { "4k3/1P6/8/8/8/8/K7/8 w - - 0 1", 6, 217342L },
+            { "8/P1k5/K7/8/8/8/8/8 w - - 0 1", 6, 92683L },
+            // self stalemate
+            { "K1k5/8/P7/8/8/8/8/8 w - - 0 1", 6, 2217L },
+            // stalemate and checkmate
+            { "8/k1P5/8/1K6/8/8/8/8 w - - 0 1", 7, 567584L },
+            // double check
+            { "8/8/2k5/5q2/5n2/8/5K2/8 b - - 0 1", 4, 23527L } };
+
+    private Perft() {
+    }
+
+    public static long perft(Board board, int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("negative depth: " + depth);
+        }
+        MoveList[] moves = new MoveList[depth + 1];
+        for (int i = 0; i <= depth; i++) {
+            moves[i] = new MoveList();
+        }
+        return perft(board, depth, moves);
+    }
+
+    private static long perft(Board board, int depth, MoveList[] moves) {
+        if (depth == 0) {
+            return 1;
+        }
+        MoveList list = moves[depth];
+        board.legalMoves(list);
+        if (depth == 1) {
+            return list.size();
+        }
+        long nodes = 0;
+        for (int i = 0; i < list.size(); i++) {
+            board.apply(list.get(i));
+            nodes += perft(board, depth - 1, moves);
+            board.undo();
+        }
+        return nodes;
+    }
+
+    // node count below each legal root move, in generation order.
+    // The root moves are counted in parallel, each on its own copy of the board
+    public static Map<String, Long> divide(Board board, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("divide needs a depth of at least 1: " + depth);
+        }
+        MoveList rootMoves = new MoveList();
+        board.legalMoves(rootMoves);
+        List<RootMoveTask> tasks = new ArrayList<RootMoveTask>(rootMoves.size());
+        for (int i = 0; i < rootMoves.size(); i++) {
+            tasks.add(new RootMoveTask(board.makeCopy(), rootMoves.get(i), depth - 1));
+        }
+        ForkJoinTask.invokeAll(tasks);
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (RootMoveTask task : tasks) {
+            result.put(Move.decode(task.move).getUci(), task.join());
+        }
+        return result;
+    }
+
+    public static long parallelPerft(Board board, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        long nodes = 0;
+        for (long n : divide(board, depth).values()) {
+            nodes += n;
+        }
+        return nodes;
+    }
+
+    private static class RootMoveTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final Board board;
+        private final int move;
+        private final int depth;
+
+        RootMoveTask(Board board, int move, int depth) {
+            this.board = board;
+            this.move = move;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            this.board.apply(this.move);
+            return perft(this.board, this.depth);
+        }
+    }
+
+    private static long nps(long nodes, long ms) {
+        return nodes * 1000 / Math.max(1, ms);
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 0) {
+            int depth = Integer.parseInt(args[0]);
+            Board board = new Board(true);
+            if (args.length > 1) {
+                StringBuilder fen = new StringBuilder();
+                for (int i = 1; i < args.length; i++) {
+                    if (i > 1) {
+                        fen.append(' ');
+                    }
+                    fen.append(args[i]);
+                }
+                board = new Board(fen.toString());
+            }
+            long t = System.currentTimeMillis();
+            Map<String, Long> divide = divide(board, depth);
+            long ms = System.currentTimeMillis() - t;
+            long nodes = 0;
+            for (Map.Entry<String, Long> e : divide.entrySet()) {
+                System.out.println(e.getKey() + ": " + e.getValue());
+                nodes += e.getValue();
+            }
+            System.out.println("moves: " + divide.size() + " nodes: " + nodes + " time: " + ms + " ms, " + nps(nodes, ms) + " nps");
+            return;
+        }
+        long totalNodes = 0;
+        long totalMs = 0;
+        int failures = 0;
+        for (Object[] p : SUITE) {
+            String fen = (String) p[0];
+            int depth = (Integer) p[1];
+            long expected = (Long) p[2];
+            long t = System.currentTimeMillis();
+            long nodes = parallelPerft(new Board(fen), depth);
+            long ms = System.currentTimeMillis() - t;
+            totalNodes += nodes;
+            totalMs += ms;
+            String status = "ok";
+            if (nodes != expected) {
+                status = "FAILED, expected " + expected;
+                failures++;
+            }
+            System.out.println(fen + " depth " + depth + ": " + nodes + " " + status + " (" + ms + " ms, " + nps(nodes, ms) + " nps)");
+        }
+        System.out.println("positions: " + SUITE.length + " failures: " + failures + " nodes: " + totalNodes + " time: " + totalMs + " ms, " + nps(totalNodes, totalMs) + " nps");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+}
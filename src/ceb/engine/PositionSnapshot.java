@@ -0,0 +1,182 @@
+package ceb.engine;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Immutable copy of a position, published by Board after each committed change (setup, applyNow,
+ * setPiece) through a volatile reference, see Board.getSnapshot().
+ *
+ * Readers on other threads, or painting code running while the board applies and undoes moves
+ * for legality checks, see a consistent position without locking.
+ */
+public final class PositionSnapshot {
+
+    // piece codes as in Board, indexed by bitboard square (a1 = 0)
+    private final int[] squares;
+    private final boolean turn;
+    // bits 0-3: white king side, white queen side, black king side, black queen side
+    private final int castlingRights;
+    private final int enPassentTarget;
+    private final int halfmoveClock;
+    private final int fullmoveNumber;
+    private final int moveIndex;
+    private final long zobristHash;
+    // legal targets per from square (bitboards, see Bitboards), filled on first use from the
+    // cache of the board, by hash. Racing readers may both compute them, with the same result
+    private volatile long[] legalTargets;
+    private final TargetCache targetCache;
+    // filled on first use like legalTargets
+    private volatile AttackMap attackMap;
+
+    PositionSnapshot(int[] squares, boolean turn, int castlingRights, int enPassentTarget, int halfmoveClock, int fullmoveNumber, int moveIndex,
+            long zobristHash, TargetCache targetCache) {
+        this.squares = squares;
+        this.turn = turn;
+        this.castlingRights = castlingRights;
+        this.enPassentTarget = enPassentTarget;
+        this.halfmoveClock = halfmoveClock;
+        this.fullmoveNumber = fullmoveNumber;
+        this.moveIndex = moveIndex;
+        this.zobristHash = zobristHash;
+        this.targetCache = targetCache;
+    }
+
+    public int getPieceAt(int x, int y) {
+        if (x < 0 || x > 7 || y < 0 || y > 7) {
+            throw new IllegalArgumentException("called getPieceAt with invalid paramters, (x,y): " + x + "," + y);
+        }
+        return this.squares[y * 8 + x];
+    }
+
+    public int getPieceAt(int internalCoordinate) {
+        int sq = internalCoordinate >= 0 && internalCoordinate < 120 ? Bitboards.SQ64[internalCoordinate] : -1;
+        if (sq < 0) {
+            throw new IllegalArgumentException("getPieceAt: not a square: " + internalCoordinate);
+        }
+        return this.squares[sq];
+    }
+
+    int[] squares() {
+        return this.squares;
+    }
+
+    public boolean getTurn() {
+        return this.turn;
+    }
+
+    public int getCastlingRights() {
+        return this.castlingRights;
+    }
+
+    public int getEnPassentTarget() {
+        return this.enPassentTarget;
+    }
+
+    public int getHalfmoveClock() {
+        return this.halfmoveClock;
+    }
+
+    public int getFullmoveNumber() {
+        return this.fullmoveNumber;
+    }
+
+    public int getMoveIndex() {
+        return this.moveIndex;
+    }
+
+    public long getZobristHash() {
+        return this.zobristHash;
+    }
+
+    // bitboard (see Bitboards) of the squares the piece on internalFrom can legally move to.
+    // The legal moves are generated once per snapshot, later calls are a lookup
+    public long getLegalTargets(int internalFrom) {
+        int sq = internalFrom >= 0 && internalFrom < 120 ? Bitboards.SQ64[internalFrom] : -1;
+        if (sq < 0) {
+            return 0;
+        }
+        long[] targets = this.legalTargets;
+        if (targets == null) {
+            targets = this.targetCache.get(this.zobristHash);
+            if (targets == null) {
+                targets = this.computeLegalTargets();
+                this.targetCache.put(this.zobristHash, targets);
+            }
+            this.legalTargets = targets;
+        }
+        return targets[sq];
+    }
+
+    public boolean isLegalTarget(int internalFrom, int internalTo) {
+        int to = internalTo >= 0 && internalTo < 120 ? Bitboards.SQ64[internalTo] : -1;
+        return to >= 0 && (this.getLegalTargets(internalFrom) & Bitboards.bit(to)) != 0;
+    }
+
+    private long[] computeLegalTargets() {
+        long[] targets = new long[64];
+        MoveList moves = new MoveList();
+        Board board = BoardPool.acquire();
+        try {
+            board.loadSnapshotUnchecked(this);
+            board.legalMoves(moves);
+        } finally {
+            BoardPool.release(board);
+        }
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            targets[Bitboards.SQ64[Move.getSourceSquare(move)]] |= Bitboards.bit120(Move.getTargetSquare(move));
+        }
+        return targets;
+    }
+
+    // see Board.getAttackMap()
+    public AttackMap getAttackMap() {
+        AttackMap map = this.attackMap;
+        if (map == null) {
+            Board board = BoardPool.acquire();
+            try {
+                board.loadSnapshotUnchecked(this);
+                map = board.getAttackMap();
+            } finally {
+                BoardPool.release(board);
+            }
+            this.attackMap = map;
+        }
+        return map;
+    }
+
+    // a new board in this position, for work that needs move generation
+    public Board toBoard() {
+        Board board = new Board();
+        board.loadSnapshot(this);
+        return board;
+    }
+
+    // legal targets of recently published positions, shared by the snapshots of one board so a
+    // position published again (a piece put back, undo and redo) is not generated twice. Entries
+    // are immutable and replaced whole, so readers on any thread see complete ones
+    static final class TargetCache {
+        private static final int SIZE = 64;
+
+        private final AtomicReferenceArray<Entry> entries = new AtomicReferenceArray<Entry>(SIZE);
+
+        long[] get(long zobristHash) {
+            Entry e = this.entries.get((int) zobristHash & (SIZE - 1));
+            return e != null && e.zobristHash == zobristHash ? e.targets : null;
+        }
+
+        void put(long zobristHash, long[] targets) {
+            this.entries.set((int) zobristHash & (SIZE - 1), new Entry(zobristHash, targets));
+        }
+
+        private static final class Entry {
+            private final long zobristHash;
+            private final long[] targets;
+
+            Entry(long zobristHash, long[] targets) {
+                this.zobristHash = zobristHash;
+                this.targets = targets;
+            }
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package ceb.engine;
+
+import java.util.Arrays;
+
+/**
+ * Alpha-beta searcher: iterative deepening over a principal variation search, with check
+ * extensions, a capture-only quiescence search and Evaluation at the leaves.
+ *
+ * Results are kept in an optional TranspositionTable, which may be shared by several searches.
+ *
+ * A Search works on the board it is given and leaves it unchanged when search() returns. It is not
+ * thread safe, except for stop(), which may be called from any thread.
+ *
+ * Usage: Search depth [fen] searches the starting position, or the given one, to a fixed depth.
+ */
+public final class Search {
+
+    public static final int MATE = 32000;
+    public static final int MAX_PLY = 64;
+    private static final int INFINITE = 32767;
+
+    private static final int HISTORY_MAX = 1 << 27;
+
+    // progress of the search, called with the result of each iteration
+    public interface Listener {
+        void info(Result result);
+    }
+
+    public static final class Result {
+        private final int depth;
+        private final int selDepth;
+        private final int score;
+        private final long nodes;
+        private final long millis;
+        private final int[] pv;
+
+        Result(int depth, int selDepth, int score, long nodes, long millis, int[] pv) {
+            this.depth = depth;
+            this.selDepth = selDepth;
+            this.score = score;
+            this.nodes = nodes;
+            this.millis = millis;
+            this.pv = pv;
+        }
+
+        // Move.NULL_MOVE if the side to move has no legal move
+        public int getBestMove() {
+            return this.pv.length > 0 ? this.pv[0] : Move.NULL_MOVE;
+        }
+
+        public int getDepth() {
+            return this.depth;
+        }
+
+        public int getSelDepth() {
+            return this.selDepth;
+        }
+
+        // centipawns from the view of the side to move, or +-(MATE - plies to mate)
+        public int getScore() {
+            return this.score;
+        }
+
+        public boolean isMate() {
+            return Math.abs(this.score) >= MATE - MAX_PLY;
+        }
+
+        // moves (not plies) to mate, negative if the side to move gets mated
+        public int getMateIn() {
+            return this.score > 0 ? (MATE - this.score + 1) / 2 : -(MATE + this.score) / 2;
+        }
+
+        public long getNodes() {
+            return this.nodes;
+        }
+
+        public long getMillis() {
+            return this.millis;
+        }
+
+        public int[] getPv() {
+            return this.pv.clone();
+        }
+
+        // the principal variation as space separated uci moves
+        public String getPvString() {
+            StringBuilder b = new StringBuilder();
+            for (int i = 0; i < this.pv.length; i++) {
+                if (i > 0) {
+                    b.append(' ');
+                }
+                b.append(Move.decode(this.pv[i]).getUci().toLowerCase());
+            }
+            return b.toString();
+        }
+    }
+
+    private final Board board;
+    private final TranspositionTable table;
+    // staged move generation per ply: pv or hash move, captures, promotions, checks, quiets
+    private final MovePicker[] pickers = new MovePicker[MAX_PLY + 1];
+    private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+    private final int[] pvLength = new int[MAX_PLY + 1];
+    private final int[][] killers = new int[MAX_PLY + 1][2];
+    // history heuristic, indexed by from and to square
+    private final int[][] history = new int[120][120];
+
+    private Listener listener;
+    private volatile boolean stopped;
+    private long nodes;
+    private int selDepth;
+    private long startTime;
+    private long deadline;
+    private long maxNodes;
+    // pv of the previous iteration, searched first
+    private int[] previousPv = new int[0];
+    private boolean followPv;
+    // first root move of the current iteration, the answer if it is stopped right away
+    private int firstRootMove;
+
+    public Search(Board board) {
+        this(board, null);
+    }
+
+    public Search(Board board, TranspositionTable table) {
+        this.board = board;
+        this.table = table;
+        for (int i = 0; i <= MAX_PLY; i++) {
+            this.pickers[i] = new MovePicker(board);
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void stop() {
+        this.stopped = true;
+    }
+
+    public boolean isStopped() {
+        return this.stopped;
+    }
+
+    public Result search(int maxDepth) {
+        return this.search(maxDepth, 0, 0);
+    }
+
+    // searches until maxDepth is completed, or until timeMillis or maxNodes (if not 0) are
+    // used up, or stop() is called. The result is the one of the last completed iteration
+    public Result search(int maxDepth, long timeMillis, long maxNodes) {
+        this.stopped = false;
+        this.nodes = 0;
+        this.startTime = System.currentTimeMillis();
+        this.deadline = timeMillis > 0 ? this.startTime + timeMillis : Long.MAX_VALUE;
+        this.maxNodes = maxNodes > 0 ? maxNodes : Long.MAX_VALUE;
+        this.previousPv = new int[0];
+        for (int[] k : this.killers) {
+            k[0] = Move.NULL_MOVE;
+            k[1] = Move.NULL_MOVE;
+        }
+        for (int[] h : this.history) {
+            Arrays.fill(h, 0);
+        }
+        if (this.table != null) {
+            this.table.newSearch();
+        }
+        maxDepth = Math.max(1, Math.min(maxDepth, MAX_PLY - 1));
+        Result result = null;
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            this.selDepth = 0;
+            this.followPv = true;
+            this.firstRootMove = Move.NULL_MOVE;
+            int score = this.search(depth, -INFINITE, INFINITE, 0);
+            // an interrupted iteration is thrown away, unless it is the only one
+            if (this.stopped && result != null) {
+                break;
+            }
+            int[] line = Arrays.copyOf(this.pv[0], this.pvLength[0]);
+            if (line.length == 0 && !Move.isNullMove(this.firstRootMove)) {
+                // stopped before the first root move was searched
+                line = new int[] { this.firstRootMove };
+            }
+            result = new Result(depth, this.selDepth, score, this.nodes, System.currentTimeMillis() - this.startTime, line);
+            this.previousPv = line;
+            if (this.listener != null) {
+                this.listener.info(result);
+            }
+            if (this.stopped) {
+                break;
+            }
+            // a mate that is found can't get any shorter
+            if (result.isMate() && MATE - Math.abs(score) <= depth) {
+                break;
+            }
+            // the next iteration would most likely not finish in time
+            if (timeMillis > 0 && System.currentTimeMillis() - this.startTime > timeMillis / 2) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private int search(int depth, int alpha, int beta, int ply) {
+        this.pvLength[ply] = ply;
+        if (ply > 0 && (this.board.halfmoveClock >= 100 || this.board.isRepetition())) {
+            return 0;
+        }
+        boolean inCheck = this.board.isCheck();
+        if (inCheck) {
+            depth++;
+        }
+        if (depth <= 0 || ply >= MAX_PLY) {
+            return this.quiesce(alpha, beta, ply);
+        }
+        this.countNode(ply);
+        int hashMove = Move.NULL_MOVE;
+        long key = this.board.getZobristHash();
+        if (this.table != null) {
+            long data = this.table.probe(key);
+            if (data != 0) {
+                hashMove = TranspositionTable.getMove(data);
+                // no cutoffs on the pv, so it stays complete
+                if (ply > 0 && beta - alpha == 1 && TranspositionTable.getDepth(data) >= depth) {
+                    int score = scoreFromTable(TranspositionTable.getScore(data), ply);
+                    int bound = TranspositionTable.getBound(data);
+                    if (bound == TranspositionTable.BOUND_EXACT || (bound == TranspositionTable.BOUND_LOWER && score >= beta)
+                            || (bound == TranspositionTable.BOUND_UPPER && score <= alpha)) {
+                        return score;
+                    }
+                }
+            }
+        }
+        int pvMove = this.pvMove(ply);
+        MovePicker picker = this.pickers[ply];
+        picker.init(Move.isNullMove(pvMove) ? hashMove : pvMove, this.killers[ply][0], this.killers[ply][1], this.history);
+        int alphaOrig = alpha;
+        int best = -INFINITE;
+        int bestMove = Move.NULL_MOVE;
+        int count = 0;
+        int move;
+        while (!Move.isNullMove(move = picker.next())) {
+            if (move != pvMove) {
+                this.followPv = false;
+            }
+            if (ply == 0 && count == 0) {
+                this.firstRootMove = move;
+            }
+            this.board.apply(move);
+            int score;
+            if (count++ == 0) {
+                score = -this.search(depth - 1, -beta, -alpha, ply + 1);
+            } else {
+                // null window search, re-searched if it beats alpha
+                score = -this.search(depth - 1, -alpha - 1, -alpha, ply + 1);
+                if (score > alpha && score < beta) {
+                    score = -this.search(depth - 1, -beta, -alpha, ply + 1);
+                }
+            }
+            this.board.undo();
+            // the other moves are off the previous pv
+            this.followPv = false;
+            if (this.stopped) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    bestMove = move;
+                    this.updatePv(ply, move);
+                    if (score >= beta) {
+                        if (!this.isCapture(move)) {
+                            this.storeKiller(ply, move, depth);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        if (count == 0) {
+            return inCheck ? -MATE + ply : 0;
+        }
+        if (this.table != null) {
+            int bound = TranspositionTable.BOUND_UPPER;
+            if (best >= beta) {
+                bound = TranspositionTable.BOUND_LOWER;
+            } else if (best > alphaOrig) {
+                bound = TranspositionTable.BOUND_EXACT;
+            }
+            this.table.store(key, bestMove, scoreToTable(best, ply), depth, bound);
+        }
+        return best;
+    }
+
+    // mate scores are stored relative to the position, not to the root
+    private static int scoreToTable(int score, int ply) {
+        if (score >= MATE - MAX_PLY) {
+            return score + ply;
+        }
+        if (score <= -MATE + MAX_PLY) {
+            return score - ply;
+        }
+        return score;
+    }
+
+    private static int scoreFromTable(int score, int ply) {
+        if (score >= MATE - MAX_PLY) {
+            return score - ply;
+        }
+        if (score <= -MATE + MAX_PLY) {
+            return score + ply;
+        }
+        return score;
+    }
+
+    private int quiesce(int alpha, int beta, int ply) {
+        this.pvLength[ply] = ply;
+        this.countNode(ply);
+        boolean inCheck = this.board.isCheck();
+        int best = -INFINITE;
+        if (!inCheck) {
+            best = Evaluation.evaluate(this.board);
+            if (best >= beta || ply >= MAX_PLY) {
+                return best;
+            }
+            if (best > alpha) {
+                alpha = best;
+            }
+        } else if (ply >= MAX_PLY) {
+            return Evaluation.evaluate(this.board);
+        }
+        // all evasions in check, else only captures and promotions that don't lose material
+        MovePicker picker = this.pickers[ply];
+        if (inCheck) {
+            picker.init(Move.NULL_MOVE);
+        } else {
+            picker.initTactical();
+        }
+        int count = 0;
+        int move;
+        while (!Move.isNullMove(move = picker.next())) {
+            count++;
+            if (!inCheck && this.board.see(move) < 0) {
+                continue;
+            }
+            this.board.apply(move);
+            int score = -this.quiesce(-beta, -alpha, ply + 1);
+            this.board.undo();
+            if (this.stopped) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    this.updatePv(ply, move);
+                    if (score >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (inCheck && count == 0) {
+            return -MATE + ply;
+        }
+        return best;
+    }
+
+    private void countNode(int ply) {
+        this.nodes++;
+        if (ply > this.selDepth) {
+            this.selDepth = ply;
+        }
+        if ((this.nodes & 1023) == 0 && (System.currentTimeMillis() >= this.deadline)) {
+            this.stopped = true;
+        }
+        if (this.nodes >= this.maxNodes) {
+            this.stopped = true;
+        }
+    }
+
+    private boolean isCapture(int move) {
+        int from = Move.getSourceSquare(move);
+        int to = Move.getTargetSquare(move);
+        // a pawn changing files on an empty square captures e.p.
+        return this.board.getPieceAt(to) != Chess.EMPTY || ((this.board.getPieceAt(from) & 0x07) == Chess.PAWN && from % 10 != to % 10);
+    }
+
+    // the move of the previous pv at this ply, while the search is still on it
+    private int pvMove(int ply) {
+        if (this.followPv) {
+            if (ply < this.previousPv.length) {
+                return this.previousPv[ply];
+            }
+            this.followPv = false;
+        }
+        return Move.NULL_MOVE;
+    }
+
+    private void updatePv(int ply, int move) {
+        int[] line = this.pv[ply];
+        int[] child = this.pv[ply + 1];
+        line[ply] = move;
+        for (int j = ply + 1; j < this.pvLength[ply + 1]; j++) {
+            line[j] = child[j];
+        }
+        this.pvLength[ply] = Math.max(this.pvLength[ply + 1], ply + 1);
+    }
+
+    private void storeKiller(int ply, int move, int depth) {
+        if (this.killers[ply][0] != move) {
+            this.killers[ply][1] = this.killers[ply][0];
+            this.killers[ply][0] = move;
+        }
+        int from = Move.getSourceSquare(move);
+        int to = Move.getTargetSquare(move);
+        this.history[from][to] = Math.min(this.history[from][to] + depth * depth, HISTORY_MAX);
+    }
+
+    public static void main(String[] args) {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        Board board = new Board(true);
+        if (args.length > 1) {
+            StringBuilder fen = new StringBuilder();
+            for (int i = 1; i < args.length; i++) {
+                if (i > 1) {
+                    fen.append(' ');
+                }
+                fen.append(args[i]);
+            }
+            board = new Board(fen.toString());
+        }
+        final TranspositionTable table = new TranspositionTable(16);
+        Search search = new Search(board, table);
+        search.setListener(new Listener() {
+            @Override
+            public void info(Result r) {
+                System.out.println("depth " + r.getDepth() + "/" + r.getSelDepth() + " score " + r.getScore() + " nodes " + r.getNodes() + " time " + r.getMillis()
+                        + " ms, " + (r.getNodes() * 1000 / Math.max(1, r.getMillis())) + " nps pv " + r.getPvString());
+            }
+        });
+        Result r = search.search(depth);
+        System.out.println("table hits " + table.getHits() + " misses " + table.getMisses() + " collisions " + table.getCollisions());
+        System.out.println("bestmove " + Move.decode(r.getBestMove()).getUci().toLowerCase());
+    }
+}
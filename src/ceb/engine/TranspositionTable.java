@@ -0,0 +1,173 @@
+package ceb.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size hash table of search results, keyed by the Zobrist hash of the position and kept in a
+ * direct ByteBuffer outside the Java heap.
+ *
+ * Each bucket holds four 16 byte entries (64 bytes): the key XORed with the data, then the data.
+ * Readers and writers don't lock; an entry written by two threads at once fails the XOR check
+ * and reads as a miss. A new entry replaces the same position, or else the shallowest entry of
+ * the bucket, entries of older searches first.
+ *
+ * Data layout: bits 0-17 move (see Move.encode), 18-33 score (signed), 34-41 depth, 42-43 bound,
+ * 44-51 age.
+ */
+public final class TranspositionTable {
+
+    public static final int BOUND_EXACT = 1;
+    // score is at least the stored one (fail high)
+    public static final int BOUND_LOWER = 2;
+    // score is at most the stored one (fail low)
+    public static final int BOUND_UPPER = 3;
+
+    private static final int ENTRY_SIZE = 16;
+    private static final int BUCKET_ENTRIES = 4;
+    private static final int BUCKET_SIZE = ENTRY_SIZE * BUCKET_ENTRIES;
+
+    private final ByteBuffer table;
+    private final long bucketMask;
+    private int age;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+
+    public TranspositionTable(int megabytes) {
+        if (megabytes < 1 || megabytes > 1024) {
+            throw new IllegalArgumentException("transposition table size must be 1 to 1024 MB: " + megabytes);
+        }
+        // largest power of two number of buckets that fits
+        long buckets = Long.highestOneBit(((long) megabytes << 20) / BUCKET_SIZE);
+        this.table = ByteBuffer.allocateDirect((int) (buckets * BUCKET_SIZE)).order(ByteOrder.nativeOrder());
+        this.bucketMask = buckets - 1;
+    }
+
+    public int getSizeInBytes() {
+        return this.table.capacity();
+    }
+
+    public void clear() {
+        for (int i = 0; i < this.table.capacity(); i += 8) {
+            this.table.putLong(i, 0L);
+        }
+        this.age = 0;
+        this.hits.reset();
+        this.misses.reset();
+        this.collisions.reset();
+        this.stores.reset();
+    }
+
+    // called before each search, so entries of previous searches are replaced first
+    public void newSearch() {
+        this.age = (this.age + 1) & 0xFF;
+    }
+
+    // the data stored for the position, 0 if there is none
+    public long probe(long key) {
+        int bucket = this.bucketOffset(key);
+        for (int i = 0; i < BUCKET_ENTRIES; i++) {
+            int offset = bucket + i * ENTRY_SIZE;
+            long data = this.table.getLong(offset + 8);
+            if (data != 0 && (this.table.getLong(offset) ^ data) == key) {
+                this.hits.increment();
+                return data;
+            }
+        }
+        this.misses.increment();
+        return 0;
+    }
+
+    public void store(long key, int move, int score, int depth, int bound) {
+        long data = (move & 0x3FFFFL) | ((score & 0xFFFFL) << 18) | ((long) (Math.max(0, Math.min(depth, 255))) << 34) | ((long) bound << 42)
+                | ((long) this.age << 44);
+        int bucket = this.bucketOffset(key);
+        int replace = -1;
+        int replaceValue = Integer.MAX_VALUE;
+        for (int i = 0; i < BUCKET_ENTRIES; i++) {
+            int offset = bucket + i * ENTRY_SIZE;
+            long old = this.table.getLong(offset + 8);
+            if (old == 0 || (this.table.getLong(offset) ^ old) == key) {
+                // keep the move of a shallower result if the new one has none
+                if (old != 0 && Move.isNullMove(move) && getDepth(old) > 0) {
+                    data = (data & ~0x3FFFFL) | (old & 0x3FFFFL);
+                }
+                replace = offset;
+                break;
+            }
+            // entries of older searches count as shallower
+            int value = getDepth(old) - (getAge(old) == this.age ? 0 : 256);
+            if (value < replaceValue) {
+                replaceValue = value;
+                replace = offset;
+            }
+        }
+        long old = this.table.getLong(replace + 8);
+        if (old != 0 && (this.table.getLong(replace) ^ old) != key) {
+            this.collisions.increment();
+        }
+        this.table.putLong(replace, key ^ data);
+        this.table.putLong(replace + 8, data);
+        this.stores.increment();
+    }
+
+    private int bucketOffset(long key) {
+        return (int) (key & this.bucketMask) * BUCKET_SIZE;
+    }
+
+    public static int getMove(long data) {
+        return (int) (data & 0x3FFFF);
+    }
+
+    public static int getScore(long data) {
+        return (short) (data >>> 18);
+    }
+
+    public static int getDepth(long data) {
+        return (int) ((data >>> 34) & 0xFF);
+    }
+
+    public static int getBound(long data) {
+        return (int) ((data >>> 42) & 0x3);
+    }
+
+    private static int getAge(long data) {
+        return (int) ((data >>> 44) & 0xFF);
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    // stores that replaced a different position
+    public long getCollisions() {
+        return this.collisions.sum();
+    }
+
+    public long getStores() {
+        return this.stores.sum();
+    }
+
+    // used entries of the current search per mille, sampled on the first 1000 buckets
+    public int hashfull() {
+        int buckets = (int) Math.min(1000, this.bucketMask + 1);
+        int used = 0;
+        for (int b = 0; b < buckets; b++) {
+            for (int i = 0; i < BUCKET_ENTRIES; i++) {
+                long data = this.table.getLong(b * BUCKET_SIZE + i * ENTRY_SIZE + 8);
+                if (data != 0 && getAge(data) == this.age) {
+                    used++;
+                }
+            }
+        }
+        return used * 1000 / (buckets * BUCKET_ENTRIES);
+    }
+}